@@ -0,0 +1,119 @@
+package com.benchmark;
+
+import com.mutator.Feedback;
+import com.mutator.MutationContext;
+import com.mutator.Seeds;
+import com.test.ArgumentSpec;
+import com.test.Protocol;
+import com.test.Test;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.random.RandomGenerator;
+
+/**
+ *  MutationContext of a relay direction without sockets, messages sent by a mutator are only counted.
+ */
+class BenchmarkContext implements MutationContext {
+    private final Test test;
+    // Protocol of the messages of MutatorBenchmark
+    private final Protocol protocol = Protocol.compile(Map.of(
+            "GIVGL", new ArgumentSpec[]{argument("int", 0L, 100L), argument("string", null, null), argument("int", null, null)},
+            "UPDAT", new ArgumentSpec[]{argument("int", 0L, 100L), argument("string", null, null), argument("int", null, null)}),
+            "%");
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "benchmark-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Feedback feedback = new Feedback();
+    volatile long sent;
+
+    BenchmarkContext(Test test) {
+        this.test = test;
+    }
+
+    @Override
+    public Test getTest() {
+        return test;
+    }
+
+    @Override
+    public String getTestValue() {
+        return test.getValue();
+    }
+
+    @Override
+    public String getProtocolSeparator() {
+        return "%";
+    }
+
+    @Override
+    public String[] getSpecialCharacters() {
+        return new String[]{"😜", "\n", "👀", "\r"};
+    }
+
+    @Override
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public boolean isClient() {
+        return false;
+    }
+
+    @Override
+    public void send(String message) {
+        sent++;
+    }
+
+    @Override
+    public void sendBytes(byte[] bytes, int offset, int length) {
+        sent++;
+    }
+
+    @Override
+    public void log(String message) {
+    }
+
+    @Override
+    public RandomGenerator getRandom() {
+        return random;
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public int getSessionId() {
+        return 1;
+    }
+
+    @Override
+    public Feedback getFeedback() {
+        return feedback;
+    }
+
+    @Override
+    public Seeds getSeeds() {
+        return null;
+    }
+
+    private static ArgumentSpec argument(String type, Long min, Long max) {
+        ArgumentSpec argument = new ArgumentSpec();
+        argument.setType(type);
+        argument.setMin(min);
+        argument.setMax(max);
+        return argument;
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+}
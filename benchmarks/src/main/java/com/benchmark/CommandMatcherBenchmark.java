@@ -0,0 +1,147 @@
+package com.benchmark;
+
+import com.CommandMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Compares the compiled CommandMatcher with the previous Run.isCommand() implementation
+ *  (lower-casing message and command for every command and a linear contains scan).
+ *  The setup first checks on random messages that both give the same results, see verify().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandMatcherBenchmark {
+
+    @Param({"3", "50", "500"})
+    int commandCount;
+
+    private String[] commands;
+    private CommandMatcher matcher;
+    private String[] messages;
+    private int index;
+
+    // Random messages per check of the matcher against the previous implementation
+    private static final int CHECKED_MESSAGES = 20_000;
+    // Mixed case letters, the protocol separator and non-ASCII letters whose lower case is a single char
+    private static final String ALPHABET = "abcABC%xyzXYZäÄéÉß";
+
+    @Setup
+    public void setup() {
+        verify(new Random(commandCount));
+        Random random = new Random(42);
+        commands = new String[commandCount];
+        for (int i = 0; i < commandCount; i++) {
+            commands[i] = randomWord(random, 5);
+        }
+        matcher = new CommandMatcher(commands);
+
+        // Half of the messages contain a command, the other half do not
+        messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            String command = i % 2 == 0 ? commands[random.nextInt(commandCount)] : "NOCMD";
+            messages[i] = command.toLowerCase(Locale.ROOT) + "%" + randomWord(random, 12) + "%" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean compiledMatcher() {
+        return matcher.matches(nextMessage());
+    }
+
+    @Benchmark
+    public boolean legacyIsCommand() {
+        return legacyIsCommand(nextMessage(), commands);
+    }
+
+    private static boolean legacyIsCommand(String message, String[] commands) {
+        for (String s : commands) {
+            if (message.toLowerCase(Locale.ROOT).contains(s.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the matchers give the results of legacyIsCommand() for random commands and messages,
+     * half of the messages containing a command in random case. The byte matcher is checked with ASCII only,
+     * as it ignores the case of ASCII letters only.
+     * @throws IllegalStateException with the first message that differs
+     */
+    private void verify(Random random) {
+        String[] checked = new String[commandCount];
+        String[] ascii = new String[commandCount];
+        for (int i = 0; i < commandCount; i++) {
+            checked[i] = randomWord(random, ALPHABET, 1 + random.nextInt(5));
+            ascii[i] = randomWord(random, ALPHABET.substring(0, 13), 1 + random.nextInt(5));
+        }
+        CommandMatcher chars = new CommandMatcher(checked);
+        CommandMatcher bytes = CommandMatcher.forBytes(ascii);
+        for (int i = 0; i < CHECKED_MESSAGES; i++) {
+            String message = randomMessage(random, ALPHABET, checked);
+            if (chars.matches(message) != legacyIsCommand(message, checked)) {
+                throw new IllegalStateException("CommandMatcher differs for \"" + message + "\".");
+            }
+            String asciiMessage = randomMessage(random, ALPHABET.substring(0, 13), ascii);
+            ByteBuffer buffer = ByteBuffer.wrap(asciiMessage.getBytes(StandardCharsets.UTF_8));
+            if (bytes.matches(buffer, 0, buffer.limit()) != legacyIsCommand(asciiMessage, ascii)) {
+                throw new IllegalStateException("CommandMatcher.forBytes differs for \"" + asciiMessage + "\".");
+            }
+        }
+    }
+
+    private static String randomMessage(Random random, String alphabet, String[] commands) {
+        String message = randomWord(random, alphabet, random.nextInt(16));
+        if (random.nextBoolean()) {
+            String command = commands[random.nextInt(commands.length)];
+            StringBuilder mixed = new StringBuilder(command.length());
+            for (char c : command.toCharArray()) {
+                mixed.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+            }
+            int at = random.nextInt(message.length() + 1);
+            message = message.substring(0, at) + mixed + message.substring(at);
+        }
+        return message;
+    }
+
+    private String nextMessage() {
+        index = (index + 1) & (messages.length - 1);
+        return messages[index];
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('A' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private static String randomWord(Random random, String alphabet, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *  Compares two JMH result files (-rf json) benchmark by benchmark, e.g. the results of a change with a baseline.
+ *  A benchmark is a regression if it got worse by more than the threshold: a lower score in throughput mode,
+ *  a higher score (or p99 in sample mode) otherwise.
+ *  Usage: java -cp target/benchmarks.jar com.benchmark.CompareResults baseline.json results.json [thresholdPercent]
+ *  Exits with status 1 if there is a regression.
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CompareResults <baseline.json> <results.json> [thresholdPercent]");
+            return;
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, JsonObject> baseline = read(args[0]);
+        Map<String, JsonObject> results = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, JsonObject> entry : results.entrySet()) {
+            JsonObject before = baseline.get(entry.getKey());
+            JsonObject metric = entry.getValue().getAsJsonObject("primaryMetric");
+            String unit = metric.get("scoreUnit").getAsString();
+            if (before == null) {
+                System.out.printf("%-70s %12s -> %12.3f %s (new)%n", entry.getKey(), "", score(metric), unit);
+                continue;
+            }
+            JsonObject beforeMetric = before.getAsJsonObject("primaryMetric");
+            boolean higherIsBetter = entry.getValue().get("mode").getAsString().equals("thrpt");
+            double change = percent(score(beforeMetric), score(metric));
+            boolean regression = higherIsBetter ? change < -threshold : change > threshold;
+            String p99 = "";
+            Double p99Before = p99(beforeMetric);
+            Double p99After = p99(metric);
+            if (p99Before != null && p99After != null) {
+                double p99Change = percent(p99Before, p99After);
+                regression |= p99Change > threshold;
+                p99 = String.format("  p99 %.3f -> %.3f (%+.1f%%)", p99Before, p99After, p99Change);
+            }
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-70s %12.3f -> %12.3f %s (%+.1f%%)%s%s%n", entry.getKey(), score(beforeMetric),
+                    score(metric), unit, change, p99, regression ? "  REGRESSION" : "");
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("%-70s missing in %s%n", key, args[1]);
+            }
+        }
+        System.out.println(regressions + " regressions (threshold " + threshold + "%).");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return Results by benchmark, mode and parameters
+     */
+    private static Map<String, JsonObject> read(String file) throws IOException {
+        Map<String, JsonObject> results = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray array = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject result = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(result.get("benchmark").getAsString()
+                        .replaceFirst("^com\\.benchmark\\.", ""));
+                key.append(' ').append(result.get("mode").getAsString());
+                if (result.has("params")) {
+                    // Sorted, the order of the parameters is not significant
+                    Map<String, String> params = new TreeMap<>();
+                    for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                    key.append(' ').append(params);
+                }
+                results.put(key.toString(), result);
+            }
+        }
+        return results;
+    }
+
+    private static double score(JsonObject metric) {
+        return metric.get("score").getAsDouble();
+    }
+
+    private static Double p99(JsonObject metric) {
+        JsonObject percentiles = metric.getAsJsonObject("scorePercentiles");
+        if (percentiles == null || !percentiles.has("99.0") || !metric.has("rawDataHistogram")) {
+            return null;
+        }
+        return percentiles.get("99.0").getAsDouble();
+    }
+
+    private static double percent(double before, double after) {
+        return before == 0 ? 0 : (after - before) / before * 100;
+    }
+}
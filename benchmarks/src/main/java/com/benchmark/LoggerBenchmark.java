@@ -0,0 +1,68 @@
+package com.benchmark;
+
+import com.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ *  Cost of Logger.log() for the relay threads, plain and CSV format.
+ *  The queue blocks when full (the default), so the rate of the writer thread is included
+ *  once the queue has filled up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    @Param({"false", "true"})
+    boolean csv;
+
+    private Path directory;
+    private Logger logger;
+    private String[] messages;
+    private int index;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logger-benchmark");
+        logger = new Logger(directory.resolve("benchmark.jar").toString(), false, csv);
+        messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = "Client -> Server: GIVGL%" + i + "%player" + (i % 7);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        logger.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void log() {
+        index = (index + 1) & (messages.length - 1);
+        logger.log("Test_Relay", "Relay", messages[index]);
+    }
+}
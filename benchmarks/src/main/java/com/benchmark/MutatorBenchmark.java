@@ -0,0 +1,78 @@
+package com.benchmark;
+
+import com.mutator.Mutator;
+import com.mutator.Mutators;
+import com.test.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Cost of a single Mutator.mutate() call for every test type, without sockets.
+ *  Delay and ScheduledDelay run with a delay of 0 so that only their overhead is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MutatorBenchmark {
+    // Test values used instead of the config, e.g. the length of the random strings
+    private static final Map<String, String> VALUES = Map.of(
+            "Delay", "0",
+            "ScheduledDelay", "0",
+            "Repeat", "2",
+            "RandomString", "16",
+            "RandomBitString", "16",
+            "Adaptive", "0.5",
+            "Fragment", "8");
+
+    @Param({"Relay", "Delay", "ScheduledDelay", "Drop", "Repeat", "TransformPartial", "DeletePartial",
+            "ProtocolSeparators", "RandomString", "RandomBitString", "SpecialChars", "Adaptive", "Fragment", "Structure"})
+    String testName;
+
+    private Mutator mutator;
+    private BenchmarkContext context;
+    private String[] messages;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Test test = new Test();
+        test.setTestName(testName);
+        test.setValue(VALUES.getOrDefault(testName, "1"));
+        context = new BenchmarkContext(test);
+        mutator = Mutators.create(testName);
+        mutator.init(context);
+
+        messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = (i % 2 == 0 ? "GIVGL%" : "UPDAT%") + i + "%player" + (i % 7) + "%" + (i * 31);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String mutate() throws IOException {
+        index = (index + 1) & (messages.length - 1);
+        return mutator.mutate(messages[index], context);
+    }
+}
@@ -0,0 +1,120 @@
+package com.benchmark;
+
+import com.Connection;
+import com.Logger;
+import com.Server;
+import com.google.gson.Gson;
+import com.test.Test;
+import com.test.TestToolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ *  End-to-end relay of the Relay test through a Connection over loopback, with an EchoGame in place of the
+ *  game server: client -> relay -> echo -> relay -> client. No game JAR is needed.
+ *  roundTrip gives the latency percentiles (p99) of a single message, pipelined the messages per second
+ *  when PIPELINE messages are in flight.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelayBenchmark {
+    private static final int PIPELINE = 64;
+
+    @Param({"polling", "nio", "raw"})
+    String relayMode;
+
+    private Path directory;
+    private Logger logger;
+    private EchoGame game;
+    private Server server;
+    private Connection connection;
+    private Socket client;
+    private Writer out;
+    private BufferedReader in;
+    private int sequence;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("relay-benchmark");
+        logger = new Logger(directory.resolve("benchmark.jar").toString(), false, false);
+        game = new EchoGame();
+
+        TestToolConfig config = new Gson().fromJson("{\"protocolSeparator\":\"%\",\"commands\":[\"GIVGL\"],"
+                + "\"specialCharacters\":[],\"timeout\":60,\"relayMode\":\"" + relayMode + "\"}", TestToolConfig.class);
+        Test test = new Test();
+        test.setTestName("Relay");
+        test.setValue("0");
+
+        server = new Server(0, logger, test.getTestNameLog(), config.isNioRelay());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        client.setTcpNoDelay(true);
+        connection = new Connection(server.accept(), server, game.getPort(), logger, test, config);
+        connection.start();
+        out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+        in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.cancel();
+        client.close();
+        server.close();
+        game.close();
+        logger.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String roundTrip() throws IOException {
+        out.write("GIVGL%" + sequence++ + "%player1\n");
+        out.flush();
+        return in.readLine();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(PIPELINE)
+    public String pipelined() throws IOException {
+        for (int i = 0; i < PIPELINE; i++) {
+            out.write("GIVGL%" + sequence++ + "%player1\n");
+        }
+        out.flush();
+        String line = null;
+        for (int i = 0; i < PIPELINE; i++) {
+            line = in.readLine();
+        }
+        return line;
+    }
+}
@@ -0,0 +1,53 @@
+package com;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Writes the results of a batch run: a summary per game JAR and one aggregate CSV file.
+ */
+public class BatchReport {
+
+    /**
+     * Writes game-summary.txt next to the logfiles of the game.
+     */
+    public static void writeSummary(String gameName, List<TestResult> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        int failed = 0;
+        long duration = 0;
+        long startup = 0;
+        lines.add("Summary for " + gameName);
+        for (TestResult result : results) {
+            lines.add(String.format("  %-20s %-10s %8d ms %8d msgs %6d ms %s start  %s", result.getTestName(),
+                    result.isFailed() ? "failed" : "completed", result.getDuration(), result.getMessages(),
+                    result.getStartup(), result.isWarmStart() ? "warm" : "cold", result.getMessage()));
+            if (result.isFailed()) {
+                failed++;
+            }
+            duration += result.getDuration();
+            startup += Math.max(0, result.getStartup());
+        }
+        lines.add(results.size() + " tests, " + failed + " failed, " + duration / 1000 + " sec. test time, "
+                + startup / 1000 + " sec. startup");
+
+        Path summary = Paths.get(gameName.substring(0, gameName.length() - 4) + "-summary.txt");
+        Files.write(summary, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the results of all games into one CSV file.
+     */
+    public static void writeAggregate(Path file, List<TestResult> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(TestResult.csvHeader());
+        for (TestResult result : results) {
+            lines.add(result.toCsv());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+}
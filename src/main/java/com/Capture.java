@@ -0,0 +1,275 @@
+package com;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *  Binary capture of the messages relayed in a test, which can be replayed with Replay.
+ *  The file starts with a header (magic "NFCAP", version, start time in ms since the epoch),
+ *  followed by one entry per message:
+ *  <pre>
+ *  long   time       Microseconds since the start of the capture
+ *  byte   flags      TO_CLIENT, HAS_IN, HAS_OUT, UNCHANGED
+ *  int    session    Session id
+ *  short  length     + UTF-8 name of the mutator that handled the message (empty if relayed unchanged)
+ *  int    length     + received bytes (if HAS_IN)
+ *  int    length     + relayed bytes (if HAS_OUT and not UNCHANGED)
+ *  </pre>
+ *  Messages are stored without their line separator. Entries are appended to a buffer which is
+ *  written to the file when it is full, so the relay threads rarely wait for disk I/O.
+ */
+public class Capture implements Closeable {
+    private static final byte[] MAGIC = "NFCAP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The message was sent by the game server to the game client. */
+    static final int TO_CLIENT = 1;
+    /** The entry contains the received message. */
+    static final int HAS_IN = 2;
+    /** The entry contains the relayed message. */
+    static final int HAS_OUT = 4;
+    /** The relayed message equals the received message and is not stored twice. */
+    static final int UNCHANGED = 8;
+
+    private final String filename;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long startNanos = System.nanoTime();
+    private long entries;
+
+    /**
+     * Creates a capture file named after the game and the test (game-testName-1.cap),
+     * the index is increased if the file already exists.
+     */
+    public Capture(String gameName, String testName) throws IOException {
+        String baseName = gameName.substring(0, gameName.length() - 4) + "-" + testName;
+        int fileIndex = 1;
+        String name;
+        do {
+            name = baseName + "-" + fileIndex + ".cap";
+            fileIndex++;
+        } while (!new File(name).createNewFile());
+        this.filename = name;
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        buffer.put(MAGIC).put(VERSION).putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Records a message handled by a test.
+     * @param toClient true if the message was sent by the game server
+     * @param session Session id
+     * @param mutation Name of the mutator, empty if the message was relayed unchanged
+     * @param in Received message, null if the message was sent by the mutator itself
+     * @param out Relayed message, null if nothing was relayed (e.g. the message was dropped or delayed)
+     */
+    public void record(boolean toClient, int session, String mutation, String in, String out) {
+        byte[] inBytes = in == null ? null : in.getBytes(StandardCharsets.UTF_8);
+        byte[] outBytes = out == null || out.equals(in) ? null : out.getBytes(StandardCharsets.UTF_8);
+        int flags = (toClient ? TO_CLIENT : 0) | (in != null ? HAS_IN : 0) | (out != null ? HAS_OUT : 0)
+                | (out != null && out.equals(in) ? UNCHANGED : 0);
+        record(flags, session, mutation, inBytes == null ? null : ByteBuffer.wrap(inBytes), outBytes);
+    }
+
+    /**
+     * Records a message forwarded unchanged from the read buffer of the raw relay, without decoding it.
+     */
+    public void recordUnchanged(boolean toClient, int session, ByteBuffer source, int from, int to) {
+        ByteBuffer bytes = source.duplicate();
+        bytes.limit(to).position(from);
+        record((toClient ? TO_CLIENT : 0) | HAS_IN | HAS_OUT | UNCHANGED, session, "", bytes, null);
+    }
+
+    private synchronized void record(int flags, int session, String mutation, ByteBuffer in, byte[] out) {
+        byte[] name = mutation.getBytes(StandardCharsets.UTF_8);
+        int size = 8 + 1 + 4 + 2 + name.length + (in != null ? 4 + in.remaining() : 0) + (out != null ? 4 + out.length : 0);
+        try {
+            ByteBuffer target = buffer;
+            if (size > buffer.remaining()) {
+                flushBuffer();
+                if (size > buffer.capacity()) {
+                    target = ByteBuffer.allocate(size);
+                }
+            }
+            target.putLong((System.nanoTime() - startNanos) / 1000).put((byte) flags).putInt(session);
+            target.putShort((short) name.length).put(name);
+            if (in != null) {
+                target.putInt(in.remaining()).put(in);
+            }
+            if (out != null) {
+                target.putInt(out.length).put(out);
+            }
+            if (target != buffer) {
+                target.flip();
+                while (target.hasRemaining()) {
+                    channel.write(target);
+                }
+            }
+            entries++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Writes the remaining entries and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flushBuffer();
+        channel.close();
+    }
+
+    /**
+     * Reads the entries of a capture file one after another.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startTime;
+
+        public Reader(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                in.close();
+                throw new IOException(path + " is not a capture file.");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported capture version " + version + ".");
+            }
+            this.startTime = in.readLong();
+        }
+
+        /**
+         * @return Start of the capture in ms since the epoch
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return Next entry, or null at the end of the file
+         */
+        public Entry next() throws IOException {
+            long time;
+            try {
+                time = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            int flags = in.readByte();
+            int session = in.readInt();
+            byte[] name = new byte[in.readUnsignedShort()];
+            in.readFully(name);
+            byte[] received = (flags & HAS_IN) != 0 ? readBytes() : null;
+            byte[] relayed = null;
+            if ((flags & UNCHANGED) != 0) {
+                relayed = received;
+            } else if ((flags & HAS_OUT) != 0) {
+                relayed = readBytes();
+            }
+            return new Entry(time, (flags & TO_CLIENT) != 0, session,
+                    new String(name, StandardCharsets.UTF_8), received, relayed);
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A captured message.
+     */
+    public static class Entry {
+        private final long time;
+        private final boolean toClient;
+        private final int session;
+        private final String mutation;
+        private final byte[] received;
+        private final byte[] relayed;
+
+        Entry(long time, boolean toClient, int session, String mutation, byte[] received, byte[] relayed) {
+            this.time = time;
+            this.toClient = toClient;
+            this.session = session;
+            this.mutation = mutation;
+            this.received = received;
+            this.relayed = relayed;
+        }
+
+        /**
+         * @return Microseconds since the start of the capture
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isToClient() {
+            return toClient;
+        }
+
+        public int getSession() {
+            return session;
+        }
+
+        /**
+         * @return Name of the mutator that handled the message, empty if it was relayed unchanged
+         */
+        public String getMutation() {
+            return mutation;
+        }
+
+        /**
+         * @return Received message, null if the message was sent by the mutator itself
+         */
+        public byte[] getReceived() {
+            return received;
+        }
+
+        /**
+         * @return Relayed message, null if nothing was relayed
+         */
+        public byte[] getRelayed() {
+            return relayed;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ *  Case-insensitive multi-pattern matcher for the configured commands (Aho-Corasick).
+ *  The commands are compiled once, matching a message is a single pass over its characters
+ *  and does not allocate.
+ *  Case is ignored char by char (Character.toLowerCase), the rule Protocol uses for the command names as well.
+ *  Equivalent to checking message.toLowerCase(Locale.ROOT).contains(command.toLowerCase(Locale.ROOT)) for every
+ *  command, except for characters whose lower case is not a single char or depends on the context (e.g. 'İ', 'Σ')
+ *  and letters outside the Basic Multilingual Plane. CommandMatcherBenchmark checks this on random inputs.
+ */
+public class CommandMatcher {
+    private static final int ASCII = 128;
+
+    // Transitions of node n: keys/targets[offsets[n] .. offsets[n + 1]), keys sorted
+    private final int[] offsets;
+    private final char[] keys;
+    private final int[] targets;
+    private final int[] fail;
+    private final boolean[] terminal;
+    // Dense transitions of the root node for ASCII characters
+    private final int[] rootAscii = new int[ASCII];
+    private final boolean matchesAll;
+
+    public CommandMatcher(String[] commands) {
+        this(lowerCase(commands, false));
+    }
+
+    /**
+     * Creates a matcher for raw UTF-8 bytes, used with matches(ByteBuffer, int, int).
+     * Only ASCII letters are matched case-insensitively.
+     */
+    public static CommandMatcher forBytes(String[] commands) {
+        return new CommandMatcher(lowerCase(commands, true));
+    }
+
+    /**
+     * @param patterns Lower case patterns
+     */
+    private CommandMatcher(List<String> patterns) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> terminalNodes = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        terminalNodes.add(false);
+        boolean emptyCommand = false;
+
+        for (String lower : patterns) {
+            emptyCommand |= lower.isEmpty();
+            int node = 0;
+            for (int i = 0; i < lower.length(); i++) {
+                Integer next = trie.get(node).get(lower.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    terminalNodes.add(false);
+                    trie.get(node).put(lower.charAt(i), next);
+                }
+                node = next;
+            }
+            terminalNodes.set(node, true);
+        }
+        this.matchesAll = emptyCommand;
+
+        // Flatten the trie
+        int nodes = trie.size();
+        offsets = new int[nodes + 1];
+        int edges = 0;
+        for (int n = 0; n < nodes; n++) {
+            offsets[n] = edges;
+            edges += trie.get(n).size();
+        }
+        offsets[nodes] = edges;
+        keys = new char[edges];
+        targets = new int[edges];
+        terminal = new boolean[nodes];
+        for (int n = 0; n < nodes; n++) {
+            int e = offsets[n];
+            for (var entry : trie.get(n).entrySet()) {
+                keys[e] = entry.getKey();
+                targets[e] = entry.getValue();
+                e++;
+            }
+            terminal[n] = terminalNodes.get(n);
+        }
+        for (int e = offsets[0]; e < offsets[1]; e++) {
+            if (keys[e] < ASCII) {
+                rootAscii[keys[e]] = targets[e];
+            }
+        }
+
+        // Failure links in breadth-first order, a node is terminal if one of its suffixes is
+        fail = new int[nodes];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int e = offsets[0]; e < offsets[1]; e++) {
+            queue.add(targets[e]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int child = targets[e];
+                int f = fail[node];
+                int next;
+                while ((next = transition(f, keys[e])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next >= 0 && next != child ? next : 0;
+                terminal[child] |= terminal[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @param message Message string
+     * @return true if the message contains one of the commands, ignoring case
+     */
+    public boolean matches(String message) {
+        if (matchesAll) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = Character.toLowerCase(message.charAt(i));
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(next, 0);
+            if (terminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the bytes buffer[from, to) of a UTF-8 encoded message.
+     * The matcher must have been created with forBytes().
+     * @return true if the bytes contain one of the commands, ignoring the case of ASCII letters
+     */
+    public boolean matches(ByteBuffer buffer, int from, int to) {
+        if (matchesAll) {
+            return true;
+        }
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            char c = (char) (buffer.get(i) & 0xFF);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(next, 0);
+            if (terminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lower-cases the commands as the messages are lower-cased while matching.
+     * For byte patterns, every UTF-8 byte becomes one char (0 - 255) and only ASCII letters are lower-cased.
+     */
+    private static List<String> lowerCase(String[] commands, boolean bytes) {
+        List<String> patterns = new ArrayList<>();
+        if (commands == null) {
+            return patterns;
+        }
+        for (String command : commands) {
+            char[] chars;
+            if (bytes) {
+                byte[] encoded = command.getBytes(StandardCharsets.UTF_8);
+                chars = new char[encoded.length];
+                for (int i = 0; i < encoded.length; i++) {
+                    char c = (char) (encoded[i] & 0xFF);
+                    chars[i] = c >= 'A' && c <= 'Z' ? (char) (c + 'a' - 'A') : c;
+                }
+            } else {
+                chars = command.toCharArray();
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = Character.toLowerCase(chars[i]);
+                }
+            }
+            patterns.add(new String(chars));
+        }
+        return patterns;
+    }
+
+    /**
+     * @return Target node of the transition, or -1 if there is none
+     */
+    private int transition(int node, char c) {
+        if (node == 0) {
+            if (c < ASCII) {
+                int target = rootAscii[c];
+                return target == 0 ? -1 : target;
+            }
+        }
+        int from = offsets[node];
+        int to = offsets[node + 1] - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            char key = keys[mid];
+            if (key < c) {
+                from = mid + 1;
+            } else if (key > c) {
+                to = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+}
@@ -1,20 +1,35 @@
 package com;
 
+import com.mutator.Feedback;
+import com.test.Shaping;
 import com.test.Test;
 import com.test.TestToolConfig;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  Connects to game server/client and processes the messages sent between them.
  *  Launches the server/client threads for testing.
+ *  Every game client gets its own Connection (session) with its own socket to the game server.
  */
 public class Connection {
+    // Retry connecting to the game server while it is still starting
+    private static final long CONNECT_TIMEOUT = 5000;
+    private static final long CONNECT_RETRY = 100;
+
     private String testName;
     private Test test;
     Server server;
@@ -27,6 +42,17 @@ public class Connection {
     BufferedReader inClient;
     PrintWriter outServer;
     BufferedReader inServer;
+    // Streams below the writers, for bytes sent without a line separator
+    private OutputStream rawOutClient;
+    private OutputStream rawOutServer;
+    // TCP_NODELAY is set on the socket of a direction once it is sent bytes
+    private volatile boolean noDelayClient;
+    private volatile boolean noDelayServer;
+
+    // Only set if the selector based relay is used
+    private NioRelay relay;
+    // Virtual threads block on readLine() instead of polling ready()
+    private final boolean blockingReads;
 
     Logger logger;
 
@@ -35,26 +61,104 @@ public class Connection {
     private Run serverThread;
     private Run clientThread;
 
+    // Sessions of the test, checking its terminal conditions
+    private final Sessions sessions;
+    private final int sessionId;
+    private final AtomicInteger stoppedThreads = new AtomicInteger();
+    // Requests of this session waiting for an answer of the game server, null if not measured
+    private final ResponseTimes.Session responses;
+    // Set when the test closes the session, so the closed sockets are not reported as disconnects
+    private volatile boolean cancelled;
+    // Links of the two directions if the test shapes the traffic, null otherwise
+    private final Shaper toClientShaper;
+    private final Shaper toServerShaper;
+    // Delivery of the shaped messages by the polling relay
+    private ShapedLink toClientLink;
+    private ShapedLink toServerLink;
+
     public Connection(Socket socket, Server server, int gameServerPort, Logger logger, Test test, TestToolConfig configTest) throws IOException {
+        this(socket, server, gameServerPort, logger, test, configTest, new Sessions(test, new TestMonitor(), 1));
+    }
+
+    /**
+     * @param sessions Sessions of the test, the connection is added as a new session when it is started
+     */
+    public Connection(Socket socket, Server server, int gameServerPort, Logger logger, Test test, TestToolConfig configTest,
+                      Sessions sessions) throws IOException {
         this.server = server;
-        this.testName = "Test_" + test.getTestName();
         this.gameServerPort = gameServerPort;
         this.logger = logger;
         this.socket = socket;
         this.test = test;
         this.configTest = configTest;
+        this.blockingReads = configTest.isVirtualThreads();
+        this.sessions = sessions;
+        this.sessionId = sessions.newSessionId();
+        this.testName = sessions.logName(sessionId);
+        this.responses = sessions.getResponseTimes() != null ? sessions.getResponseTimes().newSession(sessionId) : null;
+        this.toClientShaper = shaper(test, sessions.getSeed(), sessionId, true);
+        this.toServerShaper = shaper(test, sessions.getSeed(), sessionId, false);
+    }
+
+    /**
+     * @return Shaper of the direction, null if the test does not shape it
+     */
+    private static Shaper shaper(Test test, long seed, int sessionId, boolean toClient) {
+        Shaping shaping = test.getShaping(toClient);
+        if (shaping == null) {
+            return null;
+        }
+        // Split from the seed of the Run of the direction, so the mutators draw the same numbers with and without shaping
+        return new Shaper(shaping, new SplittableRandom(seed + 2L * sessionId + (toClient ? 1 : 0)).split());
     }
 
     public void sendToClient(String data) throws IOException {
-        this.outClient.println(data);
+        if (relay != null) {
+            relay.send(true, data);
+        } else if (toClientLink != null) {
+            toClientLink.send(data);
+        } else {
+            this.outClient.println(data);
+        }
         if (!data.isEmpty()) {
             logger.log(testName, "-> Client", data);
         }
     }
 
+    /**
+     * Sends bytes without a line separator with a single write, see MutationContext.sendBytes().
+     * @param toClient true to send the bytes to the game client
+     */
+    void sendBytes(boolean toClient, byte[] bytes, int offset, int length) throws IOException {
+        if (toClient ? !noDelayClient : !noDelayServer) {
+            (toClient ? socket : socketToServer).setTcpNoDelay(true);
+            if (toClient) {
+                noDelayClient = true;
+            } else {
+                noDelayServer = true;
+            }
+        }
+        ShapedLink link = toClient ? toClientLink : toServerLink;
+        if (relay != null) {
+            relay.send(toClient, ByteBuffer.wrap(bytes, offset, length).slice());
+        } else if (link != null) {
+            link.send(ByteBuffer.wrap(bytes, offset, length));
+        } else {
+            PrintWriter out = toClient ? outClient : outServer;
+            OutputStream rawOut = toClient ? rawOutClient : rawOutServer;
+            // Keeps the order with the lines written before
+            out.flush();
+            rawOut.write(bytes, offset, length);
+            rawOut.flush();
+        }
+    }
+
     public String receiveFromClient() throws IOException, InterruptedException {
-        if (this.inClient.ready()) {
+        if (blockingReads || this.inClient.ready()) {
             String line = this.inClient.readLine();
+            if (line == null) {
+                throw new IOException("Client closed the connection.");
+            }
             if (!line.isEmpty()) {
                 logger.log(testName, "Client ->", line);
             }
@@ -66,16 +170,32 @@ public class Connection {
         }
     }
 
-    public void sendToServer(String data) throws IOException {
-        this.outServer.println(data);
+    /**
+     * @return System.nanoTime() at which the message is written, on a shaped link its arrival
+     */
+    public long sendToServer(String data) throws IOException {
+        long sent;
+        if (relay != null) {
+            sent = relay.send(false, data);
+        } else if (toServerLink != null) {
+            sent = toServerLink.send(data);
+        } else {
+            this.outServer.println(data);
+            sent = System.nanoTime();
+        }
         if (!data.isEmpty()) {
             logger.log(testName, "-> Server", data);
         }
+        return sent;
     }
 
     public String receiveFromServer() throws IOException, InterruptedException {
-        if (this.inServer.ready()) {
+        if (blockingReads || this.inServer.ready()) {
             String line = this.inServer.readLine();
+            if (line == null) {
+                serverClosed();
+                throw new IOException("Server closed the connection.");
+            }
             if (!line.isEmpty()) {
                 logger.log(testName, "Server ->", line);
             }
@@ -88,54 +208,233 @@ public class Connection {
     }
 
     void init() throws IOException {
-        socketToServer = new Socket("localhost", gameServerPort);
+        if (configTest.isNioRelay()) {
+            initRelay();
+            return;
+        }
+        socketToServer = connectToServer(false);
         //System.out.println(id + " connected to server");
 
         this.socket.setSoTimeout(0);
         this.socketToServer.setSoTimeout(0);
 
+        this.rawOutClient = this.socket.getOutputStream();
+        this.rawOutServer = this.socketToServer.getOutputStream();
         this.outClient = new PrintWriter(this.socket.getOutputStream(), true, StandardCharsets.UTF_8);
         this.inClient = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
         this.outServer = new PrintWriter(this.socketToServer.getOutputStream(), true, StandardCharsets.UTF_8);
         this.inServer = new BufferedReader(new InputStreamReader(this.socketToServer.getInputStream(), StandardCharsets.UTF_8));
+        if (toClientShaper != null) {
+            toClientLink = new ShapedLink(toClientShaper, outClient, rawOutClient, testName + "-Client-link", blockingReads);
+        }
+        if (toServerShaper != null) {
+            toServerLink = new ShapedLink(toServerShaper, outServer, rawOutServer, testName + "-Server-link", blockingReads);
+        }
+    }
+
+    /**
+     * Connects to the game server with a channel and sets up the selector based relay.
+     * Requires the client socket to be accepted from a ServerSocketChannel.
+     */
+    void initRelay() throws IOException {
+        if (this.socket.getChannel() == null) {
+            throw new IOException("NIO relay requires a channel based client socket.");
+        }
+        socketToServer = connectToServer(true);
+        relay = new NioRelay(this, this.socket.getChannel(), socketToServer.getChannel(), logger, testName, configTest);
+    }
+
+    /**
+     * Connects to the game server. Clients may connect before the game server is listening,
+     * so refused connections are retried for CONNECT_TIMEOUT ms.
+     * @param useChannel If true, the socket is backed by a SocketChannel
+     */
+    private Socket connectToServer(boolean useChannel) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                if (useChannel) {
+                    return SocketChannel.open(new InetSocketAddress("localhost", gameServerPort)).socket();
+                }
+                return new Socket("localhost", gameServerPort);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(CONNECT_RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting to the game server.");
+            }
+        }
     }
 
     /**
      * Launch client and server threads.
+     * With the NIO relay, the Run objects only provide the test hooks and a single relay thread is started.
      */
     public void start() {
+        sessions.add(this);
         try {
             init();
             clientThread = new Run(this, true, test, logger, configTest);
             serverThread = new Run(this, false, test, logger, configTest);
+            clientThread.init();
+            serverThread.init();
+            if (relay != null) {
+                relay.setRuns(serverThread, clientThread);
+                relay.start();
+                return;
+            }
             clientThread.start();
             serverThread.start();
         } catch (Exception e) {
             System.out.println(e);
+            // The session cannot relay anything, count it as closed
+            relayStopped();
+        }
+    }
+
+    /**
+     * @return Test name used in the log, tagged with the session id if the test has several sessions
+     */
+    String getTestNameLog() {
+        return testName;
+    }
+
+    int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return Seed of the test, the Run objects derive their random numbers from it
+     */
+    long getSeed() {
+        return sessions.getSeed();
+    }
+
+    Metrics getMetrics() {
+        return sessions.getMetrics();
+    }
+
+    ResponseTimes getResponseTimes() {
+        return sessions.getResponseTimes();
+    }
+
+    Feedback getFeedback() {
+        return sessions.getFeedback();
+    }
+
+    ResponseTimes.Session getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return Capture file of the test, or null if the messages are not captured
+     */
+    Capture getCapture() {
+        return sessions.getCapture();
+    }
+
+    /**
+     * @return Corpus of the run, or null if the messages are not kept
+     */
+    Corpus getCorpus() {
+        return sessions.getCorpus();
+    }
+
+    /**
+     * @param toClient true for the messages to the game client
+     * @return Shaper of the direction, null if the messages are relayed at once
+     */
+    Shaper getShaper(boolean toClient) {
+        return toClient ? toClientShaper : toServerShaper;
+    }
+
+    /**
+     * Called for every received message.
+     */
+    void messageRelayed() {
+        sessions.messageRelayed();
+    }
+
+    /**
+     * Called when a Run thread has stopped, ends the test once both directions are closed.
+     */
+    void threadStopped() {
+        if (stoppedThreads.incrementAndGet() == 2) {
+            relayStopped();
+        }
+    }
+
+    /**
+     * Called when the game server has closed the connection of this session.
+     */
+    void serverClosed() {
+        if (!cancelled) {
+            sessions.getFeedback().signal(Feedback.Signal.DISCONNECT, sessionId, "Game server closed the connection.");
+        }
+    }
+
+    /**
+     * Called when the relay between client and server has stopped.
+     */
+    void relayStopped() {
+        if (responses != null) {
+            responses.close();
         }
+        sessions.getFeedback().removeListeners(sessionId);
+        sessions.sessionClosed();
     }
 
     /**
      * Interrupts client and server threads, closes readers and sockets.
+     * The server socket accepting the clients is closed by the test.
      */
     public void cancel() {
-        clientThread.cancel();
-        serverThread.cancel();
+        cancelled = true;
+        if (clientThread != null) {
+            clientThread.cancel();
+            serverThread.cancel();
+        }
+        logShaping(toServerShaper, toServerLink, "-> Server");
+        logShaping(toClientShaper, toClientLink, "-> Client");
 
         try {
-            outClient.close();
-            inClient.close();
-            outServer.close();
-            inServer.close();
-
+            // Closing the sockets first ends blocking reads, which hold the reader locks
             socket.close();
-            socketToServer.close();
-            server.serverSocket.close();
+            if (socketToServer != null) {
+                socketToServer.close();
+            }
+
+            if (relay != null) {
+                relay.cancel();
+                relay.join(1000);
+            } else if (outClient != null) {
+                outClient.close();
+                inClient.close();
+                outServer.close();
+                inServer.close();
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
+    private void logShaping(Shaper shaper, ShapedLink link, String direction) {
+        if (shaper == null) {
+            return;
+        }
+        logger.log(testName, "Shaping", direction + ": " + shaper.summary());
+        int undelivered = link != null ? link.cancel() : 0;
+        if (undelivered > 0) {
+            logger.log(testName, "Shaping", direction + ": " + undelivered + " messages not delivered.");
+        }
     }
 
 
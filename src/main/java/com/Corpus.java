@@ -0,0 +1,491 @@
+package com;
+
+import com.mutator.Seeds;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ *  Persistent corpus of the unique messages relayed in all tests and games, and of the mutated messages that
+ *  were followed by an anomaly of the game (errors of the game JARs, disconnects, latency spikes).
+ *  The file starts with a header (magic "NFCORP", version), followed by one record per message:
+ *  <pre>
+ *  int    length     Length of the message in bytes
+ *  byte   flags      TO_CLIENT, ANOMALY
+ *  long   hash       64-bit FNV-1a hash of the direction and the UTF-8 message
+ *  byte[] message    UTF-8 message, without its line separator
+ *  </pre>
+ *  Messages are identified by their hash. When the file is opened, the records are scanned once into an in-memory
+ *  index (open addressing on the hashes, about 30 bytes per message), the texts stay on disk. A message seen before
+ *  costs a pass over its characters and a table lookup, without encoding or I/O; new messages are appended
+ *  through a buffer like the capture files. The texts of recently added and sampled messages are kept
+ *  in an LRU hot set, so sample() rarely reads the file.
+ *  A stored message that turns out to be an anomaly input is appended again with the ANOMALY flag,
+ *  the later record wins when the file is opened.
+ */
+public class Corpus implements Seeds, Closeable {
+    private static final byte[] MAGIC = "NFCORP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int RECORD_HEADER = 4 + 1 + 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longer messages are not stored
+    private static final int MAX_MESSAGE = 64 * 1024;
+    // Texts kept in memory
+    private static final int HOT_SIZE = 16 * 1024;
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The message was sent by the game server to the game client. */
+    static final int TO_CLIENT = 1;
+    /** The message was mutated and followed by an anomaly of the game. */
+    static final int ANOMALY = 2;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Bytes written to the file, the buffer follows at this position
+    private long written;
+
+    // Hash, position of the latest record and flags of every message, by id
+    private long[] hashes = new long[1024];
+    private long[] offsets = new long[1024];
+    private byte[] flags = new byte[1024];
+    private int size;
+    // Open addressing table of the ids + 1 (0 is empty), indexed by the hash
+    private int[] table = new int[2048];
+    // Ids by direction and ANOMALY flag (index TO_CLIENT | ANOMALY), to pick random messages
+    private final int[][] lists = new int[4][16];
+    private final int[] listSizes = new int[4];
+    private final Map<Long, String> hot = new LinkedHashMap<>(HOT_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            return size() > HOT_SIZE;
+        }
+    };
+
+    private Corpus(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                        StandardOpenOption.CREATE);
+        if (channel.size() == 0) {
+            buffer.put(MAGIC).put(VERSION);
+            return;
+        }
+        try (Reader reader = new Reader(path)) {
+            Entry entry;
+            while ((entry = reader.read(false)) != null) {
+                index(entry.hash, entry.flags, entry.offset);
+            }
+            written = reader.getPosition();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (written < channel.size()) {
+            // The tool was stopped while writing the last record
+            System.out.println("Corpus " + path + ": incomplete last record removed.");
+            channel.truncate(written);
+        }
+    }
+
+    /**
+     * Opens the corpus file and indexes its messages, the file is created if it does not exist.
+     */
+    public static Corpus open(Path path) throws IOException {
+        return new Corpus(path);
+    }
+
+    /**
+     * @return true if the file starts like a corpus file
+     */
+    public static boolean isCorpus(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+    }
+
+    /**
+     * Adds a relayed message if it is not in the corpus yet.
+     * @return true if the message is new
+     */
+    public boolean add(String message, boolean toClient) {
+        return add(message, toClient, false);
+    }
+
+    /**
+     * Adds a mutated message that was followed by an anomaly of the game, or flags it if it is stored already.
+     * @return true if the message is a new anomaly input
+     */
+    public boolean addAnomaly(String message, boolean toClient) {
+        return add(message, toClient, true);
+    }
+
+    private boolean add(String message, boolean toClient, boolean anomaly) {
+        if (message.isEmpty() || message.length() > MAX_MESSAGE) {
+            return false;
+        }
+        long hash = hash(message, toClient);
+        synchronized (this) {
+            int id = table[find(hash)] - 1;
+            if (id >= 0 && (!anomaly || (flags[id] & ANOMALY) != 0)) {
+                return false;
+            }
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            int recordFlags = (toClient ? TO_CLIENT : 0) | (anomaly ? ANOMALY : 0);
+            if (bytes.length > MAX_MESSAGE || !append(hash, recordFlags, ByteBuffer.wrap(bytes))) {
+                return false;
+            }
+            hot.put(hash, message);
+            return true;
+        }
+    }
+
+    /**
+     * Adds a message forwarded unchanged from the read buffer of the raw relay, without decoding it.
+     * @return true if the message is new
+     */
+    public boolean add(ByteBuffer source, int from, int to, boolean toClient) {
+        if (to == from || to - from > MAX_MESSAGE) {
+            return false;
+        }
+        long hash = toClient ? FNV_BASIS ^ TO_CLIENT : FNV_BASIS;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (source.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        synchronized (this) {
+            if (table[find(hash)] != 0) {
+                return false;
+            }
+            ByteBuffer bytes = source.duplicate();
+            bytes.limit(to).position(from);
+            return append(hash, toClient ? TO_CLIENT : 0, bytes);
+        }
+    }
+
+    /**
+     * Writes a record and indexes it.
+     * @return false if the record could not be written
+     */
+    private boolean append(long hash, int recordFlags, ByteBuffer message) {
+        int length = message.remaining();
+        try {
+            ByteBuffer target = buffer;
+            if (RECORD_HEADER + length > buffer.remaining()) {
+                flushBuffer();
+                if (RECORD_HEADER + length > buffer.capacity()) {
+                    target = ByteBuffer.allocate(RECORD_HEADER + length);
+                }
+            }
+            long offset = written + (target == buffer ? buffer.position() : 0);
+            target.putInt(length).put((byte) recordFlags).putLong(hash).put(message);
+            if (target != buffer) {
+                target.flip();
+                while (target.hasRemaining()) {
+                    written += channel.write(target, written);
+                }
+            }
+            index(hash, recordFlags, offset);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void index(long hash, int recordFlags, long offset) {
+        int slot = find(hash);
+        int id = table[slot] - 1;
+        if (id < 0) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                flags = Arrays.copyOf(flags, size * 2);
+            }
+            id = size++;
+            hashes[id] = hash;
+            table[slot] = id + 1;
+            listAdd(recordFlags & TO_CLIENT, id);
+            if (2 * size > table.length) {
+                rehash();
+            }
+        }
+        if ((recordFlags & ANOMALY) != 0 && (flags[id] & ANOMALY) == 0) {
+            listAdd(recordFlags & (TO_CLIENT | ANOMALY), id);
+        }
+        flags[id] |= (byte) recordFlags;
+        offsets[id] = offset;
+    }
+
+    private void listAdd(int list, int id) {
+        if (listSizes[list] == lists[list].length) {
+            lists[list] = Arrays.copyOf(lists[list], listSizes[list] * 2);
+        }
+        lists[list][listSizes[list]++] = id;
+    }
+
+    /**
+     * @return Slot of the hash in the table, an empty slot if the hash is not indexed
+     */
+    private int find(long hash) {
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        int id;
+        while ((id = table[slot]) != 0 && hashes[id - 1] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for (int id = 0; id < size; id++) {
+            table[find(hashes[id])] = id + 1;
+        }
+    }
+
+    private static int spread(long hash) {
+        int h = (int) (hash ^ (hash >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * FNV-1a hash of the direction and the UTF-8 bytes of the message, computed on the characters without encoding.
+     * Unpaired surrogates count as '?', like String.getBytes().
+     */
+    static long hash(String message, boolean toClient) {
+        long hash = toClient ? FNV_BASIS ^ TO_CLIENT : FNV_BASIS;
+        int length = message.length();
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                hash = (hash ^ c) * FNV_PRIME;
+            } else if (c < 0x800) {
+                hash = (hash ^ (0xC0 | (c >> 6))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, message.charAt(++i));
+                    hash = (hash ^ (0xF0 | (codePoint >> 18))) * FNV_PRIME;
+                    hash = (hash ^ (0x80 | ((codePoint >> 12) & 0x3F))) * FNV_PRIME;
+                    hash = (hash ^ (0x80 | ((codePoint >> 6) & 0x3F))) * FNV_PRIME;
+                    hash = (hash ^ (0x80 | (codePoint & 0x3F))) * FNV_PRIME;
+                } else {
+                    hash = (hash ^ '?') * FNV_PRIME;
+                }
+            } else {
+                hash = (hash ^ (0xE0 | (c >> 12))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((c >> 6) & 0x3F))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3F))) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public synchronized int count(boolean toClient, boolean anomalies) {
+        return listSizes[(toClient ? TO_CLIENT : 0) | (anomalies ? ANOMALY : 0)];
+    }
+
+    @Override
+    public synchronized String sample(boolean toClient, boolean anomalies, RandomGenerator random) {
+        int list = (toClient ? TO_CLIENT : 0) | (anomalies ? ANOMALY : 0);
+        if (listSizes[list] == 0) {
+            return null;
+        }
+        int id = lists[list][random.nextInt(listSizes[list])];
+        String message = hot.get(hashes[id]);
+        if (message == null) {
+            try {
+                message = read(offsets[id]);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            hot.put(hashes[id], message);
+        }
+        return message;
+    }
+
+    /**
+     * Reads the message of a record from the file.
+     */
+    private String read(long offset) throws IOException {
+        if (offset >= written) {
+            flushBuffer();
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(header, offset);
+        ByteBuffer message = ByteBuffer.allocate(header.getInt(0));
+        readFully(message, offset + RECORD_HEADER);
+        return new String(message.array(), StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Corpus " + path + " ends within a record.");
+            }
+        }
+    }
+
+    /**
+     * @return Number of different messages
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of anomaly inputs
+     */
+    public synchronized int anomalies() {
+        return listSizes[ANOMALY] + listSizes[TO_CLIENT | ANOMALY];
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, written);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered records, e.g. at the end of a test.
+     */
+    public synchronized void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Writes the remaining records and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flushBuffer();
+        channel.close();
+    }
+
+    /**
+     * Reads the records of a corpus file one after another.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        // End of the last complete record
+        private long position = MAGIC.length + 1;
+
+        public Reader(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+            byte[] magic = new byte[MAGIC.length];
+            try {
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException(path + " is not a corpus file.");
+                }
+                byte version = in.readByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported corpus version " + version + ".");
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e instanceof EOFException ? new IOException(path + " is not a corpus file.") : e;
+            }
+        }
+
+        /**
+         * @return Next record, or null at the end of the file (or of its last complete record)
+         */
+        public Entry next() throws IOException {
+            return read(true);
+        }
+
+        private Entry read(boolean withMessage) throws IOException {
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_MESSAGE) {
+                    throw new IOException("Corrupt corpus record at position " + position + ".");
+                }
+                int flags = in.readByte();
+                long hash = in.readLong();
+                byte[] message = null;
+                if (withMessage) {
+                    message = new byte[length];
+                    in.readFully(message);
+                } else {
+                    in.skipNBytes(length);
+                }
+                Entry entry = new Entry(position, flags, hash, message);
+                position += RECORD_HEADER + length;
+                return entry;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A record of the corpus file.
+     */
+    public static class Entry {
+        private final long offset;
+        private final int flags;
+        private final long hash;
+        private final byte[] message;
+
+        Entry(long offset, int flags, long hash, byte[] message) {
+            this.offset = offset;
+            this.flags = flags;
+            this.hash = hash;
+            this.message = message;
+        }
+
+        public boolean isToClient() {
+            return (flags & TO_CLIENT) != 0;
+        }
+
+        /**
+         * @return true if the message was followed by an anomaly of the game
+         */
+        public boolean isAnomaly() {
+            return (flags & ANOMALY) != 0;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        /**
+         * @return UTF-8 message
+         */
+        public byte[] getMessage() {
+            return message;
+        }
+    }
+}
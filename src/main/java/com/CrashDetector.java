@@ -0,0 +1,119 @@
+package com;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  Finds crashes in the output of a game JAR while it is read, line by line.
+ *  A stack trace starts with a line naming an exception by its qualified class name (e.g. java.lang.Exception: ...)
+ *  and continues with "at ..." frames, "Caused by" and "... n more" lines; it is reported to the Findings of the test
+ *  once it is complete. A head without frames (e.g. a log line "Error: invalid move") is no stack trace.
+ *  Every line is also matched against the crashPatterns of the config.
+ */
+class CrashDetector {
+    // Frames kept per stack trace
+    private static final int MAX_FRAMES = 50;
+    // Group 1 is the class of the exception
+    private static final Pattern HEAD = Pattern.compile(
+            "^(?:Exception in thread \".*\" )?([\\w$]+(?:\\.[\\w$]+)*\\.[\\w$]*(?:Exception|Error|Throwable))(?:: .*)?$");
+    private static final Pattern FRAME = Pattern.compile("^\\s+at (.*)$");
+    private static final Pattern TRACE_CONTINUATION = Pattern.compile("^(\\s+\\.\\.\\. [0-9]+ (more|common frames omitted)|\\s*Suppressed: .*)$");
+    private static final String CAUSED_BY = "Caused by: ";
+
+    private final String source;
+    private final boolean isClient;
+    private final Findings findings;
+
+    // Stack trace being read, null if none
+    private String head;
+    private String exception;
+    private String cause;
+    private boolean inCause;
+    // true once a frame follows the head, also one of a cause
+    private boolean hasFrame;
+    private final List<String> frames = new ArrayList<>();
+
+    /**
+     * @param source Name of the game JAR in the log, e.g. GameServer
+     */
+    CrashDetector(String source, boolean isClient, Findings findings) {
+        this.source = source;
+        this.isClient = isClient;
+        this.findings = findings;
+    }
+
+    /**
+     * Processes a line of the output.
+     */
+    void accept(String line) {
+        for (Pattern pattern : findings.getPatterns()) {
+            if (pattern.matcher(line).find()) {
+                findings.pattern(source, isClient, pattern, line);
+            }
+        }
+
+        if (head != null) {
+            Matcher frame = FRAME.matcher(line);
+            if (frame.matches()) {
+                hasFrame = true;
+                // The frames of the causes are mostly shared with the trace, only the first ones are kept
+                if (!inCause && frames.size() < MAX_FRAMES) {
+                    frames.add(frame.group(1));
+                }
+                return;
+            }
+            if (line.startsWith(CAUSED_BY)) {
+                cause = line.substring(CAUSED_BY.length());
+                inCause = true;
+                return;
+            }
+            if (TRACE_CONTINUATION.matcher(line).matches()) {
+                return;
+            }
+            flush();
+        }
+
+        if (!line.isEmpty() && !Character.isWhitespace(line.charAt(0))) {
+            Matcher matcher = HEAD.matcher(line);
+            if (matcher.matches()) {
+                head = line;
+                exception = matcher.group(1);
+            }
+        }
+    }
+
+    /**
+     * @return true if a stack trace has been started and may still continue
+     */
+    boolean isTraceOpen() {
+        return head != null;
+    }
+
+    /**
+     * Reports the stack trace being read, called when the output pauses or ends.
+     */
+    void flush() {
+        if (head == null) {
+            return;
+        }
+        if (hasFrame) {
+            findings.exception(source, isClient, head, exception, cause, frames);
+        }
+        head = null;
+        hasFrame = false;
+        exception = null;
+        cause = null;
+        inCause = false;
+        frames.clear();
+    }
+
+    /**
+     * The game JAR has exited on its own.
+     */
+    void exited(int exitCode) {
+        flush();
+        findings.exit(source, isClient, exitCode);
+    }
+}
@@ -0,0 +1,80 @@
+package com;
+
+import java.util.Locale;
+import java.util.random.RandomGenerator;
+
+/**
+ *  Random distribution used to vary delays (jitter).
+ *  Configured as "name" or "name:parameter", e.g. "uniform", "normal" or "pareto:1.5".
+ */
+public class Distribution {
+    private static final double DEFAULT_PARETO_SHAPE = 2.0;
+
+    private final String name;
+    private final double parameter;
+
+    private Distribution(String name, double parameter) {
+        this.name = name;
+        this.parameter = parameter;
+    }
+
+    /**
+     * Parses the configured distribution.
+     * @param config Distribution name with optional parameter, null for no jitter
+     * @return Distribution
+     */
+    public static Distribution parse(String config) {
+        if (config == null || config.isEmpty()) {
+            return new Distribution("none", 0);
+        }
+        String[] parts = config.split(":", 2);
+        String name = parts[0].trim().toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "none":
+            case "uniform":
+            case "normal":
+                return new Distribution(name, 0);
+            case "pareto":
+                double shape = parts.length > 1 ? Double.parseDouble(parts[1]) : DEFAULT_PARETO_SHAPE;
+                if (shape <= 0) {
+                    throw new IllegalArgumentException("Pareto shape must be positive: " + config);
+                }
+                return new Distribution(name, shape);
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + config);
+        }
+    }
+
+    /**
+     * Draws a value around base.
+     * uniform: base +- spread, normal: standard deviation spread,
+     * pareto: heavy tail above base with scale spread.
+     * @param base Base value
+     * @param spread Jitter
+     * @param random Random number generator
+     * @return Sampled value, never negative
+     */
+    public double sample(double base, double spread, RandomGenerator random) {
+        double value;
+        switch (name) {
+            case "uniform":
+                value = base + (random.nextDouble() * 2 - 1) * spread;
+                break;
+            case "normal":
+                value = base + random.nextGaussian() * spread;
+                break;
+            case "pareto":
+                value = base + spread * (Math.pow(1 - random.nextDouble(), -1 / parameter) - 1);
+                break;
+            default:
+                value = base;
+                break;
+        }
+        return Math.max(0, value);
+    }
+
+    @Override
+    public String toString() {
+        return name.equals("pareto") ? name + ":" + parameter : name;
+    }
+}
@@ -0,0 +1,142 @@
+package com;
+
+import java.util.List;
+
+/**
+ *  A crash or anomaly found in the output of a game JAR, grouped by its signature.
+ *  Written as one JSON line per signature and test to the findings file of the game.
+ */
+public class Finding {
+    public static final String EXCEPTION = "exception";
+    public static final String PATTERN = "pattern";
+    public static final String EXIT = "exit";
+
+    private String game;
+    private String test;
+    private long seed;
+    // GameServer, GameClient or GameClient#n
+    private String source;
+    private String kind;
+    private String signature;
+    // First line of the exception, the matched line or the exit code
+    private String message;
+    private String exception;
+    private String cause;
+    private List<String> frames;
+    private Integer exitCode;
+    private int count;
+    private String firstSeen;
+    private String lastSeen;
+
+    public String getGame() {
+        return game;
+    }
+
+    public void setGame(String game) {
+        this.game = game;
+    }
+
+    public String getTest() {
+        return test;
+    }
+
+    public void setTest(String test) {
+        this.test = test;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getException() {
+        return exception;
+    }
+
+    public void setException(String exception) {
+        this.exception = exception;
+    }
+
+    public String getCause() {
+        return cause;
+    }
+
+    public void setCause(String cause) {
+        this.cause = cause;
+    }
+
+    public List<String> getFrames() {
+        return frames;
+    }
+
+    public void setFrames(List<String> frames) {
+        this.frames = frames;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public void setExitCode(Integer exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public String getFirstSeen() {
+        return firstSeen;
+    }
+
+    public void setFirstSeen(String firstSeen) {
+        this.firstSeen = firstSeen;
+    }
+
+    public String getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(String lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+}
@@ -0,0 +1,234 @@
+package com;
+
+import com.google.gson.Gson;
+import com.mutator.Feedback;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ *  Crashes and anomalies found in the output of the game JARs of a test, grouped by signature.
+ *  The first occurrence of a signature is logged (and ends the test with stopOnCrash),
+ *  at the end of the test every signature is written with its count to the findings file of the game
+ *  (game-findings.jsonl, one JSON object per line).
+ */
+public class Findings {
+    // Frames of a stack trace that make up its signature, the rest differs between call paths into the same bug
+    private static final int SIGNATURE_FRAMES = 5;
+    private static final Pattern LINE_NUMBER = Pattern.compile(":[0-9]+\\)");
+    // Findings files are shared by the parallel tests of a game
+    private static final Object WRITE_LOCK = new Object();
+
+    private final String gameName;
+    private final String testName;
+    private final String testNameLog;
+    private final long seed;
+    private final Logger logger;
+    private final TestMonitor monitor;
+    private final boolean stopOnCrash;
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final Map<String, Finding> bySignature = new LinkedHashMap<>();
+    private Feedback feedback;
+
+    /**
+     * @param monitor Monitor of the test, signalled at the first crash if stopOnCrash is set
+     * @param crashPatterns Regular expressions for further anomalies in the output, may be null
+     */
+    public Findings(String gameName, String testName, String testNameLog, long seed, Logger logger,
+                    TestMonitor monitor, boolean stopOnCrash, String[] crashPatterns) {
+        this.gameName = gameName;
+        this.testName = testName;
+        this.testNameLog = testNameLog;
+        this.seed = seed;
+        this.logger = logger;
+        this.monitor = monitor;
+        this.stopOnCrash = stopOnCrash;
+        if (crashPatterns != null) {
+            for (String crashPattern : crashPatterns) {
+                try {
+                    patterns.add(Pattern.compile(crashPattern));
+                } catch (PatternSyntaxException e) {
+                    System.out.println("Invalid crash pattern " + crashPattern + ": " + e.getDescription());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param feedback Receives a SERVER_ERROR or CLIENT_ERROR signal for every exception and matched pattern
+     */
+    void setFeedback(Feedback feedback) {
+        this.feedback = feedback;
+    }
+
+    List<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * A stack trace has been printed by a game JAR.
+     * @param head First line of the trace
+     * @param exception Class of the exception
+     * @param cause Last "Caused by" line, null if none
+     * @param frames Stack frames ("at ..." lines without indentation)
+     */
+    void exception(String source, boolean isClient, String head, String exception, String cause, List<String> frames) {
+        StringBuilder signature = new StringBuilder(exception);
+        if (cause != null) {
+            signature.append('|').append(cause.split(":", 2)[0]);
+        }
+        for (int i = 0; i < Math.min(SIGNATURE_FRAMES, frames.size()); i++) {
+            signature.append('|').append(LINE_NUMBER.matcher(frames.get(i)).replaceAll(")"));
+        }
+        Finding finding = new Finding();
+        finding.setKind(Finding.EXCEPTION);
+        finding.setMessage(head);
+        finding.setException(exception);
+        finding.setCause(cause);
+        finding.setFrames(new ArrayList<>(frames));
+        report(source, isClient, finding, signature.toString());
+    }
+
+    /**
+     * A line of a game JAR matches one of the crashPatterns.
+     */
+    void pattern(String source, boolean isClient, Pattern pattern, String line) {
+        Finding finding = new Finding();
+        finding.setKind(Finding.PATTERN);
+        finding.setMessage(line);
+        // Lines differing in numbers only (times, ids) are the same anomaly
+        report(source, isClient, finding, pattern.pattern() + "|" + line.replaceAll("[0-9]+", "#"));
+    }
+
+    /**
+     * A game JAR has exited on its own during the test.
+     */
+    void exit(String source, boolean isClient, int exitCode) {
+        Finding finding = new Finding();
+        finding.setKind(Finding.EXIT);
+        finding.setMessage(source + " exited with code " + exitCode + ".");
+        finding.setExitCode(exitCode);
+        report(source, isClient, finding, "exit|" + exitCode);
+    }
+
+    private void report(String source, boolean isClient, Finding candidate, String signatureText) {
+        String signature = hash(candidate.getKind() + "|" + signatureText);
+        String now = Instant.now().toString();
+        boolean first;
+        synchronized (this) {
+            Finding finding = bySignature.get(signature);
+            first = finding == null;
+            if (!first) {
+                finding.setCount(finding.getCount() + 1);
+                finding.setLastSeen(now);
+            } else {
+                finding = candidate;
+                finding.setGame(gameName);
+                finding.setTest(testName);
+                finding.setSeed(seed);
+                finding.setSource(source);
+                finding.setSignature(signature);
+                finding.setCount(1);
+                finding.setFirstSeen(now);
+                finding.setLastSeen(now);
+                bySignature.put(signature, finding);
+            }
+        }
+        boolean crash = !candidate.getKind().equals(Finding.EXIT);
+        if (feedback != null && crash) {
+            feedback.signal(isClient ? Feedback.Signal.CLIENT_ERROR : Feedback.Signal.SERVER_ERROR, 0,
+                    source + ": " + candidate.getMessage());
+        }
+        if (!first) {
+            return;
+        }
+        logger.log(testNameLog, "Crash", source + " " + candidate.getKind() + " [" + signature + "]: " + candidate.getMessage());
+        if (stopOnCrash && crash) {
+            monitor.signal(source + " crashed [" + signature + "]: " + candidate.getMessage());
+        }
+    }
+
+    /**
+     * @return First 12 hex digits of the SHA-256 of the signature
+     */
+    private static String hash(String signature) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(signature.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(signature.hashCode());
+        }
+    }
+
+    public synchronized int size() {
+        return bySignature.size();
+    }
+
+    /**
+     * @return Findings of the test, one per signature
+     */
+    public synchronized List<Finding> getFindings() {
+        return new ArrayList<>(bySignature.values());
+    }
+
+    /**
+     * @return Summary logged at the end of the test, null if nothing was found
+     */
+    public synchronized String summary() {
+        if (bySignature.isEmpty()) {
+            return null;
+        }
+        StringBuilder summary = new StringBuilder(bySignature.size() + " distinct findings:");
+        for (Finding finding : bySignature.values()) {
+            summary.append(" [").append(finding.getSignature()).append("] ").append(finding.getCount()).append("x ")
+                    .append(finding.getException() != null ? finding.getException() : finding.getMessage()).append(';');
+        }
+        summary.setLength(summary.length() - 1);
+        return summary.toString();
+    }
+
+    /**
+     * Appends the findings of the test to game-findings.jsonl.
+     * Parallel tests of the game append one after another, so their lines are not interleaved.
+     * @return Name of the findings file, null if there is nothing to write
+     */
+    public String write() throws IOException {
+        List<Finding> findings = getFindings();
+        if (findings.isEmpty()) {
+            return null;
+        }
+        String filename = gameName.substring(0, gameName.length() - 4) + "-findings.jsonl";
+        Gson gson = new Gson();
+        synchronized (WRITE_LOCK) {
+            append(filename, findings, gson);
+        }
+        return filename;
+    }
+
+    private static void append(String filename, List<Finding> findings, Gson gson) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Finding finding : findings) {
+                writer.write(gson.toJson(finding));
+                writer.write('\n');
+            }
+        }
+    }
+}
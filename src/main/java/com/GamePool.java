@@ -0,0 +1,122 @@
+package com;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Game servers launched ahead of their tests, each on a spare port, so that JVM startup and game
+ *  initialization overlap with the running tests. A test takes a warm game server instead of launching one,
+ *  and a new one is launched right away for a following test. At most warmServers game servers wait at a time,
+ *  and only for games that still have planned tests.
+ */
+public class GamePool {
+    private final int size;
+    private final boolean virtualThreads;
+    // Planned tests per game that have not taken a game server yet, in the order of the games
+    private final Map<String, Integer> remaining = new LinkedHashMap<>();
+    private final Map<String, Deque<RunGame>> warm = new LinkedHashMap<>();
+    private int warmCount;
+    private boolean shutdown;
+
+    /**
+     * @param size Number of game servers kept warm
+     * @param virtualThreads If true, the output of the game servers is read by virtual threads
+     */
+    public GamePool(int size, boolean virtualThreads) {
+        this.size = size;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Announces a test of the game, game servers are launched for the planned tests in order.
+     */
+    public synchronized void plan(String gameName) {
+        remaining.merge(gameName, 1, Integer::sum);
+        refill();
+    }
+
+    /**
+     * Takes a warm game server for a test of the game and launches the next one.
+     * The game server may still be starting, see RunGame.awaitListening().
+     * @return Game server, to be attached to the test, or null if there is none
+     */
+    public synchronized RunGame take(String gameName) {
+        remaining.computeIfPresent(gameName, (game, tests) -> tests > 1 ? tests - 1 : null);
+        Deque<RunGame> servers = warm.get(gameName);
+        RunGame server = null;
+        while (servers != null && !servers.isEmpty() && server == null) {
+            RunGame candidate = servers.poll();
+            warmCount--;
+            if (candidate.isAlive()) {
+                server = candidate;
+            } else {
+                // Exited while waiting
+                candidate.cancel();
+            }
+        }
+        refill();
+        return server;
+    }
+
+    /**
+     * Launches game servers for the planned tests until size game servers are warm.
+     */
+    private void refill() {
+        if (shutdown) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+            Deque<RunGame> servers = warm.computeIfAbsent(entry.getKey(), game -> new ArrayDeque<>());
+            while (warmCount < size && servers.size() < entry.getValue()) {
+                RunGame server = launch(entry.getKey());
+                if (server == null) {
+                    return;
+                }
+                servers.add(server);
+                warmCount++;
+            }
+        }
+    }
+
+    private RunGame launch(String gameName) {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        } catch (IOException e) {
+            System.out.println("No spare port for a warm game server: " + e.getMessage());
+            return null;
+        }
+        RunGame server = new RunGame(false, gameName, port, port, null, null);
+        server.setLaunchDelay(0);
+        server.setVirtualThreads(virtualThreads);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Stops the game servers that have not been taken.
+     */
+    public void shutdown() throws InterruptedException {
+        List<RunGame> servers = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (Deque<RunGame> gameServers : warm.values()) {
+                servers.addAll(gameServers);
+                gameServers.clear();
+            }
+            warmCount = 0;
+        }
+        for (RunGame server : servers) {
+            server.cancel();
+        }
+        for (RunGame server : servers) {
+            server.join(5000);
+        }
+    }
+}
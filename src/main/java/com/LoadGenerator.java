@@ -0,0 +1,301 @@
+package com;
+
+import com.test.Test;
+import com.test.TestToolConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ *  Load mode: lightweight synthetic game clients replacing the client JAR.
+ *  A single selector thread connects loadClients non-blocking channels to the test tool port, so every
+ *  synthetic client is a session of its own and its messages pass through the tests like those of a real client.
+ *  Each client sends loadRate messages per second, built from loadMessages or from the configured commands,
+ *  and every received line is paired with the oldest unanswered message to measure the latency.
+ */
+public class LoadGenerator extends Thread {
+    private static final int BUFFER_SIZE = 4 * 1024;
+    // Unanswered messages remembered per client for the latency measurement
+    private static final int MAX_OUTSTANDING = 1024;
+    private static final long SELECT_TIMEOUT = 100;
+
+    private final int port;
+    private final int clients;
+    private final long interval;
+    private final String[] templates;
+    private final Selector selector;
+    private final PriorityQueue<Client> schedule = new PriorityQueue<>((a, b) -> Long.compare(a.nextSend, b.nextSend));
+    private final List<Client> all = new ArrayList<>();
+
+    // Statistics, written by the generator thread and read once it has stopped
+    private long startTime;
+    private long stopTime;
+    private long sent;
+    private long received;
+    private long throttled;
+    private long connectErrors;
+    private long disconnects;
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    public LoadGenerator(int port, Test test, TestToolConfig configTest) throws IOException {
+        super("LoadGenerator-" + test.getTestNameLog());
+        this.port = port;
+        this.clients = test.getLoadClients();
+        this.interval = (long) (1e9 / test.getLoadRate());
+        this.templates = templates(test, configTest);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Messages sent by the clients in turn: the configured loadMessages, or one message per command.
+     * "{client}" and "{seq}" are replaced with the client number and the message number.
+     */
+    private static String[] templates(Test test, TestToolConfig configTest) {
+        String[] messages = test.getLoadMessages();
+        if (messages != null && messages.length > 0) {
+            return messages;
+        }
+        String[] commands = configTest.getCommands();
+        if (commands == null || commands.length == 0) {
+            return new String[]{"LOAD" + configTest.getProtocolSeparator() + "{client}" + configTest.getProtocolSeparator() + "{seq}"};
+        }
+        String[] generated = new String[commands.length];
+        for (int i = 0; i < commands.length; i++) {
+            generated[i] = commands[i] + configTest.getProtocolSeparator() + "{client}"
+                    + configTest.getProtocolSeparator() + "{seq}";
+        }
+        return generated;
+    }
+
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+        try {
+            for (int i = 1; i <= clients; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Client client = new Client(i, channel);
+                all.add(client);
+                try {
+                    if (channel.connect(new InetSocketAddress("localhost", port))) {
+                        client.connected();
+                    } else {
+                        client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+                    }
+                } catch (IOException e) {
+                    connectErrors++;
+                    client.close();
+                }
+            }
+
+            while (!interrupted()) {
+                long now = System.nanoTime();
+                Client next;
+                while ((next = schedule.peek()) != null && next.nextSend <= now) {
+                    schedule.poll();
+                    if (next.open) {
+                        next.send(now);
+                        next.nextSend += interval;
+                        schedule.add(next);
+                    }
+                }
+                long wait = next == null ? SELECT_TIMEOUT
+                        : Math.min(SELECT_TIMEOUT, Math.max(1, (next.nextSend - now) / 1_000_000));
+                selector.select(wait);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            client.channel.finishConnect();
+                            client.connected();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            client.read();
+                        }
+                    } catch (IOException e) {
+                        if (!client.open) {
+                            connectErrors++;
+                        } else {
+                            disconnects++;
+                        }
+                        client.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            stopTime = System.nanoTime();
+            for (Client client : all) {
+                client.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops sending, closes all client connections and waits for the generator thread.
+     */
+    public void cancel() throws InterruptedException {
+        interrupt();
+        selector.wakeup();
+        join(5000);
+    }
+
+    private void recordLatency(long latency) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = latency;
+    }
+
+    /**
+     * @return Summary of throughput and latency percentiles, only valid once the generator has stopped
+     */
+    public String summary() {
+        double seconds = Math.max(1, stopTime - startTime) / 1e9;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return String.format("%d clients, %d sent (%.1f msg/s), %d received (%.1f msg/s), %d throttled, "
+                        + "%d connect errors, %d disconnects, latency p50 %s p90 %s p99 %s max %s",
+                clients, sent, sent / seconds, received, received / seconds, throttled, connectErrors, disconnects,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1));
+    }
+
+    private static String percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1);
+        return String.format("%.2f ms", sorted[Math.max(0, index)] / 1e6);
+    }
+
+    /**
+     * A synthetic client: its channel, the bytes waiting to be written and the send times of unanswered messages.
+     */
+    private class Client {
+        private final int id;
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Queue<Long> outstanding = new ArrayDeque<>();
+        private ByteBuffer out;
+        private SelectionKey key;
+        private long nextSend;
+        private long seq;
+        private boolean open;
+
+        Client(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        void connected() throws IOException {
+            open = true;
+            if (key == null) {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            // Spread the first messages of the clients over one interval
+            nextSend = System.nanoTime() + interval * id / clients;
+            schedule.add(this);
+        }
+
+        void send(long now) {
+            if (out != null) {
+                // The previous message has not been written yet
+                throttled++;
+                return;
+            }
+            String template = templates[(int) (seq % templates.length)];
+            String message = template.replace("{client}", String.valueOf(id)).replace("{seq}", String.valueOf(seq));
+            seq++;
+            out = ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+            if (outstanding.size() == MAX_OUTSTANDING) {
+                outstanding.poll();
+            }
+            outstanding.add(now);
+            sent++;
+            try {
+                flush();
+            } catch (IOException e) {
+                disconnects++;
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            if (out == null) {
+                return;
+            }
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                out = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) == -1) {
+                throw new IOException("Connection closed.");
+            }
+            long now = System.nanoTime();
+            in.flip();
+            byte[] array = in.array();
+            int start = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (array[i] == '\n') {
+                    if (i > start) {
+                        received++;
+                        Long sendTime = outstanding.poll();
+                        if (sendTime != null) {
+                            recordLatency(now - sendTime);
+                        }
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && in.limit() == in.capacity()) {
+                // Line longer than the buffer, keep one byte to count it once complete
+                start = in.limit() - 1;
+            }
+            in.position(start);
+            in.compact();
+        }
+
+        void close() {
+            open = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
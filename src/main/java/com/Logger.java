@@ -2,27 +2,67 @@ package com;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  Provides the logging functionality.
  *  Creates a logfile with an index (increasing if the previous index already exists) and
  *  writes activities into it.
  *  Can be used in CSV mode to create a readable CSV file.
+ *  Lines are handed to a background writer thread through a bounded queue, so the relay threads
+ *  never wait for disk I/O. The writer keeps the file open and writes in batches.
  */
 public class Logger {
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL = 100;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneOffset.of("+01:00"));
+
     private String filename;
     private final boolean printLog;
     private final boolean enableCSV;
+    private final boolean dropWhenFull;
+
+    private final BlockingQueue<String> queue;
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Sequence numbers of queued and written lines, used by flush()
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object writtenLock = new Object();
+    private long written;
+    private volatile boolean flushRequested;
 
     public Logger(String gameName, boolean printLog, boolean enableCSV) throws IOException {
+        this(gameName, printLog, enableCSV, DEFAULT_QUEUE_SIZE, false);
+    }
+
+    /**
+     * @param queueSize Maximum number of lines waiting for the writer thread
+     * @param dropWhenFull If true, lines are dropped (and counted) when the queue is full,
+     *                     otherwise the logging thread blocks until there is space.
+     */
+    public Logger(String gameName, boolean printLog, boolean enableCSV, int queueSize, boolean dropWhenFull)
+            throws IOException {
         this.printLog = printLog;
         this.enableCSV = enableCSV;
+        this.dropWhenFull = dropWhenFull;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
         String logFileName = gameName.substring(0, gameName.length() - 4);
 
         int fileIndex = 1;
@@ -36,16 +76,17 @@ public class Logger {
             fileIndex++;
         }
         System.out.println("Logfile created.");
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
 
         // If CSV mode is enabled, write column names first.
         if (enableCSV) {
-            try {
-                String text = "timestamp;category;subject;message";
-                Files.writeString(Paths.get(filename), text + "\n", StandardOpenOption.APPEND);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            String text = "timestamp;category;subject;message";
+            channel.write(ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)));
         }
+
+        writer = new Thread(this::writeLoop, "Logger");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     /**
@@ -56,22 +97,135 @@ public class Logger {
      * @param message Log message
      */
     public void log(String category, String subject, String message) {
-        String timestamp = getTimestamp();
-        String text = "";
+        String text = format(category, subject, message);
+        if (!running) {
+            return;
+        }
+        if (dropWhenFull) {
+            if (queue.offer(text)) {
+                queued.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        } else {
+            try {
+                queue.put(text);
+                queued.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
+    /**
+     * @return Line of the logfile, in CSV mode a row with the columns of the header
+     */
+    private String format(String category, String subject, String message) {
+        String timestamp = getTimestamp();
         if (!enableCSV) {
-            text = "[" + timestamp + "] [" + category + "] [" + subject + "]: " + message;
+            return "[" + timestamp + "] [" + category + "] [" + subject + "]: " + message;
+        }
+        return timestamp + ";" + category + ";" + subject + ";" + message;
+    }
+
+    /**
+     * Waits until all lines logged so far have been written to the logfile.
+     */
+    public void flush() {
+        long target = queued.get();
+        flushRequested = true;
+        synchronized (writtenLock) {
+            while (written < target && writer.isAlive()) {
+                try {
+                    writtenLock.wait(FLUSH_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
-        else {
-            text = timestamp + ";" + category + ";" + subject + ";" + message;
+    }
+
+    /**
+     * Writes the remaining lines, stops the writer thread and closes the logfile.
+     */
+    public void close() {
+        flush();
+        running = false;
+        try {
+            writer.join();
+            channel.close();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
         }
+    }
+
+    /**
+     * @return Number of lines dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        StringBuilder batch = new StringBuilder(BATCH_SIZE);
+        long batchLines = 0;
+        long reportedDrops = 0;
+        long lastWrite = System.currentTimeMillis();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                String line = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                while (line != null && batch.length() < BATCH_SIZE) {
+                    batch.append(line).append('\n');
+                    batchLines++;
+                    line = queue.poll();
+                }
+                if (line != null) {
+                    batch.append(line).append('\n');
+                    batchLines++;
+                }
+            } catch (InterruptedException e) {
+                // Not interrupted on purpose: an interrupt would close the FileChannel
+            }
+
+            long droppedNow = dropped.get();
+            if (droppedNow != reportedDrops) {
+                batch.append(format("Logger", "Warning", (droppedNow - reportedDrops) + " log lines dropped."))
+                        .append('\n');
+                reportedDrops = droppedNow;
+            }
+
+            long now = System.currentTimeMillis();
+            boolean due = batch.length() >= BATCH_SIZE || now - lastWrite >= FLUSH_INTERVAL
+                    || flushRequested || queue.isEmpty() && !running;
+            if (batch.length() > 0 && due) {
+                write(batch);
+                batch.setLength(0);
+                lastWrite = now;
+            }
+            if (batch.length() == 0) {
+                flushRequested = false;
+                synchronized (writtenLock) {
+                    written += batchLines;
+                    batchLines = 0;
+                    writtenLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void write(StringBuilder batch) {
         try {
-            Files.writeString(Paths.get(filename), text + "\n", StandardOpenOption.APPEND);
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
         if (printLog) {
-            System.out.println(text);
+            System.out.print(batch);
         }
     }
 
@@ -84,9 +238,6 @@ public class Logger {
     }
 
     private String getTimestamp() {
-        return DateTimeFormatter
-                .ofPattern("HH:mm:ss.SSS")
-                .withZone(ZoneOffset.of("+01:00"))
-                .format(Instant.now());
+        return TIMESTAMP_FORMAT.format(Instant.now());
     }
 }
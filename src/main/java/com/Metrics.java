@@ -0,0 +1,254 @@
+package com;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  Metrics of a test, updated by the relay threads of all its sessions without locking:
+ *  messages and bytes per direction, applied mutations and drops, messages handled by the test itself
+ *  (e.g. delayed or re-chunked), the latency added by the relay
+ *  (from reading a message to writing it) and the gaps between the messages of the game server.
+ *  Running tests are registered for the HTTP endpoint (MetricsServer) and as JMX MBeans.
+ */
+public class Metrics implements MetricsMBean {
+    private static final Map<String, Metrics> RUNNING = new ConcurrentHashMap<>();
+    // Tests with the same name may run at the same time for the same game (parallel tests)
+    private static final AtomicInteger RUN_IDS = new AtomicInteger();
+
+    private final String gameName;
+    private final String testName;
+    private final int runId = RUN_IDS.incrementAndGet();
+    private final long startTime = System.nanoTime();
+
+    private final LongAdder messagesToServer = new LongAdder();
+    private final LongAdder messagesToClient = new LongAdder();
+    private final LongAdder bytesToServer = new LongAdder();
+    private final LongAdder bytesToClient = new LongAdder();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    // Nanoseconds
+    private final Histogram relayLatency = new Histogram();
+    private final Histogram serverGap = new Histogram();
+
+    private ObjectName objectName;
+
+    /**
+     * @param gameName Game JAR
+     * @param testName Name of the test
+     */
+    public Metrics(String gameName, String testName) {
+        this.gameName = gameName == null ? "" : Paths.get(gameName).getFileName().toString();
+        this.testName = testName;
+    }
+
+    /**
+     * Counts a message received from the game client (fromServer == false) or the game server.
+     * @param bytes Length of the message in bytes, without line separator
+     */
+    void messageReceived(boolean fromServer, long bytes) {
+        if (fromServer) {
+            messagesToClient.increment();
+            bytesToClient.add(bytes);
+        } else {
+            messagesToServer.increment();
+            bytesToServer.add(bytes);
+        }
+    }
+
+    /**
+     * Counts a message changed by the mutator of the test, messages relayed unchanged are not counted.
+     * @param dropped true if the mutator dropped the message
+     */
+    void mutationApplied(boolean dropped) {
+        mutations.increment();
+        if (dropped) {
+            drops.increment();
+        }
+    }
+
+    /**
+     * Counts a message the mutator of the test sends itself (e.g. ScheduledDelay, Fragment).
+     */
+    void messageHandled() {
+        handled.increment();
+    }
+
+    /**
+     * @param nanos Time from reading a message to writing it
+     */
+    void relayed(long nanos) {
+        relayLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos Time since the previous message of the game server in the same session
+     */
+    void serverGap(long nanos) {
+        serverGap.record(nanos);
+    }
+
+    /**
+     * @return Length of the string in UTF-8
+     */
+    static int utf8Length(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // Surrogate pairs are 4 bytes, 2 for each char
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Makes the metrics available through MetricsServer and JMX while the test runs.
+     */
+    public void register() {
+        RUNNING.put(key(), this);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("com.networkfuzzing:type=Test,game=" + ObjectName.quote(gameName)
+                    + ",test=" + ObjectName.quote(testName) + ",run=" + runId);
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.out.println("Metrics not registered in JMX: " + e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        RUNNING.remove(key(), this);
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            objectName = null;
+        }
+    }
+
+    private String key() {
+        return gameName + "/" + testName + "/" + runId;
+    }
+
+    /**
+     * @return Metrics of the running tests
+     */
+    static Collection<Metrics> running() {
+        return new ArrayList<>(RUNNING.values());
+    }
+
+    /**
+     * @return Summary logged at the end of the test
+     */
+    public String summary() {
+        return String.format("%d messages to server (%d bytes), %d messages to client (%d bytes), %.1f msg/s, "
+                        + "%d mutations, %d drops, %d handled by the test, relay latency p50 %d us p99 %d us max %d us, "
+                        + "server gap p50 %d ms p99 %d ms max %d ms",
+                getMessagesToServer(), getBytesToServer(), getMessagesToClient(), getBytesToClient(),
+                getMessagesPerSecond(), getMutations(), getDrops(), getHandled(),
+                getRelayLatencyP50Micros(), getRelayLatencyP99Micros(),
+                TimeUnit.NANOSECONDS.toMicros(relayLatency.getMax()),
+                getServerGapP50Millis(), getServerGapP99Millis(), TimeUnit.NANOSECONDS.toMillis(serverGap.getMax()));
+    }
+
+    String getGameName() {
+        return gameName;
+    }
+
+    String getTestName() {
+        return testName;
+    }
+
+    /**
+     * @return Id telling apart the runs of tests with the same name
+     */
+    int getRunId() {
+        return runId;
+    }
+
+    Histogram getRelayLatency() {
+        return relayLatency;
+    }
+
+    Histogram getServerGap() {
+        return serverGap;
+    }
+
+    @Override
+    public long getMessagesToServer() {
+        return messagesToServer.sum();
+    }
+
+    @Override
+    public long getMessagesToClient() {
+        return messagesToClient.sum();
+    }
+
+    @Override
+    public long getBytesToServer() {
+        return bytesToServer.sum();
+    }
+
+    @Override
+    public long getBytesToClient() {
+        return bytesToClient.sum();
+    }
+
+    @Override
+    public long getMutations() {
+        return mutations.sum();
+    }
+
+    @Override
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @Override
+    public long getHandled() {
+        return handled.sum();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+        return (getMessagesToServer() + getMessagesToClient()) / seconds;
+    }
+
+    @Override
+    public long getRelayLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(relayLatency.getPercentile(50));
+    }
+
+    @Override
+    public long getRelayLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(relayLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getServerGapP50Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(serverGap.getPercentile(50));
+    }
+
+    @Override
+    public long getServerGapP99Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(serverGap.getPercentile(99));
+    }
+}
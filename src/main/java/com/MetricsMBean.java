@@ -0,0 +1,30 @@
+package com;
+
+/**
+ *  JMX view of the metrics of a running test.
+ */
+public interface MetricsMBean {
+    long getMessagesToServer();
+
+    long getMessagesToClient();
+
+    long getBytesToServer();
+
+    long getBytesToClient();
+
+    long getMutations();
+
+    long getDrops();
+
+    long getHandled();
+
+    double getMessagesPerSecond();
+
+    long getRelayLatencyP50Micros();
+
+    long getRelayLatencyP99Micros();
+
+    long getServerGapP50Millis();
+
+    long getServerGapP99Millis();
+}
@@ -0,0 +1,113 @@
+package com;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+/**
+ *  Local HTTP endpoint serving the metrics of the running tests in the Prometheus text format
+ *  at http://localhost:metricsPort/metrics.
+ */
+public class MetricsServer {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final HttpServer server;
+
+    public MetricsServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        System.out.println("Metrics available at http://localhost:" + port + "/metrics");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = render(Metrics.running()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String render(Collection<Metrics> running) {
+        StringBuilder out = new StringBuilder();
+        counter(out, running, "fuzzing_messages_total", "Messages received by the test tool.",
+                Metrics::getMessagesToServer, Metrics::getMessagesToClient);
+        counter(out, running, "fuzzing_bytes_total", "Bytes of the messages received by the test tool.",
+                Metrics::getBytesToServer, Metrics::getBytesToClient);
+        simple(out, running, "fuzzing_mutations_total", "Messages changed by the test.", Metrics::getMutations);
+        simple(out, running, "fuzzing_drops_total", "Messages dropped by the test.", Metrics::getDrops);
+        simple(out, running, "fuzzing_handled_total", "Messages sent later or in parts by the test itself.",
+                Metrics::getHandled);
+        summary(out, running, "fuzzing_relay_latency_seconds", "Time from reading a message to writing it.", true);
+        summary(out, running, "fuzzing_server_gap_seconds", "Time between two messages of the game server.", false);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, Collection<Metrics> running, String name, String help,
+                                ToDoubleFunction<Metrics> toServer, ToDoubleFunction<Metrics> toClient) {
+        header(out, name, "counter", help);
+        for (Metrics metrics : running) {
+            line(out, name, labels(metrics) + ",direction=\"to_server\"", toServer.applyAsDouble(metrics));
+            line(out, name, labels(metrics) + ",direction=\"to_client\"", toClient.applyAsDouble(metrics));
+        }
+    }
+
+    private static void simple(StringBuilder out, Collection<Metrics> running, String name, String help,
+                               ToDoubleFunction<Metrics> value) {
+        header(out, name, "counter", help);
+        for (Metrics metrics : running) {
+            line(out, name, labels(metrics), value.applyAsDouble(metrics));
+        }
+    }
+
+    private static void summary(StringBuilder out, Collection<Metrics> running, String name, String help,
+                                boolean relayLatency) {
+        header(out, name, "summary", help);
+        for (Metrics metrics : running) {
+            Histogram histogram = relayLatency ? metrics.getRelayLatency() : metrics.getServerGap();
+            for (double quantile : QUANTILES) {
+                line(out, name, labels(metrics) + ",quantile=\"" + quantile + "\"",
+                        histogram.getPercentile(quantile * 100) / 1e9);
+            }
+            line(out, name + "_sum", labels(metrics), histogram.getSum() / 1e9);
+            line(out, name + "_count", labels(metrics), histogram.getCount());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ");
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.9f", value));
+        }
+        out.append('\n');
+    }
+
+    private static String labels(Metrics metrics) {
+        return "game=\"" + escape(metrics.getGameName()) + "\",test=\"" + escape(metrics.getTestName())
+                + "\",run=\"" + metrics.getRunId() + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
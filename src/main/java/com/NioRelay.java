@@ -0,0 +1,426 @@
+package com;
+
+import com.test.TestToolConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ *  Event-driven relay between game client and game server.
+ *  A single thread waits on a Selector for both non-blocking channels and forwards every
+ *  message as soon as it arrives, instead of polling the readers every 100 ms.
+ *  Messages are still passed through the test hooks of the two Run objects.
+ *  In raw mode, the message boundaries are found in the raw bytes and only messages selected by the
+ *  commands are decoded and passed to the tests. All other bytes are forwarded unchanged
+ *  (including their line endings) straight from the direct read buffer.
+ *  If the test shapes the traffic, the bytes for an endpoint wait in its delayed queue until their arrival time,
+ *  and the selector wakes up for the next arrival.
+ */
+public class NioRelay extends Thread {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long SELECT_TIMEOUT = 1000;
+    // ms the remaining writes to the other side may take once one side has closed
+    private static final long DRAIN_TIMEOUT = 1000;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LF = {'\n'};
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Connection connection;
+    private final Logger logger;
+    private final String testName;
+    private final Selector selector;
+    private final Endpoint client;
+    private final Endpoint server;
+
+    // Raw mode: messages to test are selected on the bytes
+    private final boolean raw;
+    private final CommandMatcher byteMatcher;
+    private final boolean ignoreCommands;
+    // Capture file of the test, null if disabled
+    private final Capture capture;
+
+    // Run objects applying the tests, named after the direction of the messages they handle
+    private Run toServer;
+    private Run toClient;
+
+    public NioRelay(Connection connection, SocketChannel clientChannel, SocketChannel serverChannel,
+                    Logger logger, String testName, TestToolConfig configTest) throws IOException {
+        this.connection = connection;
+        this.logger = logger;
+        this.testName = testName;
+        this.raw = configTest.isRawRelay();
+        this.byteMatcher = raw ? CommandMatcher.forBytes(configTest.getCommands()) : null;
+        this.ignoreCommands = configTest.isIgnoreCommands();
+        this.capture = connection.getCapture();
+        this.selector = Selector.open();
+        this.client = new Endpoint(clientChannel, "Client", connection.getShaper(true));
+        this.server = new Endpoint(serverChannel, "Server", connection.getShaper(false));
+    }
+
+    /**
+     * Sets the Run objects whose test hooks are applied to the relayed messages.
+     * @param toServer Run handling client messages (isClient == false)
+     * @param toClient Run handling server messages (isClient == true)
+     */
+    void setRuns(Run toServer, Run toClient) {
+        this.toServer = toServer;
+        this.toClient = toClient;
+        client.connect(server, toServer);
+        server.connect(client, toClient);
+    }
+
+    /**
+     * Queues a message for the client or the server. Can be called from any thread.
+     * @param toClientSide true if the message is sent to the game client
+     * @param data Message without line separator
+     * @return System.nanoTime() at which the message is written, see send(boolean, ByteBuffer)
+     */
+    long send(boolean toClientSide, String data) throws IOException {
+        return send(toClientSide, data, LINE_SEPARATOR);
+    }
+
+    private long send(boolean toClientSide, String data, byte[] lineSeparator) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + lineSeparator.length);
+        buffer.put(bytes).put(lineSeparator).flip();
+        return send(toClientSide, buffer);
+    }
+
+    /**
+     * Queues bytes for the client or the server, written with a write of their own. Can be called from any thread.
+     * @param toClientSide true if the bytes are sent to the game client
+     * @param buffer Bytes from its position to its limit, not copied
+     * @return System.nanoTime() at which the bytes are written, on a shaped link their arrival
+     */
+    long send(boolean toClientSide, ByteBuffer buffer) throws IOException {
+        Endpoint target = toClientSide ? client : server;
+        long written = target.enqueue(buffer);
+        if (currentThread() == this) {
+            target.flush();
+        } else {
+            selector.wakeup();
+        }
+        return written;
+    }
+
+    @Override
+    public void run() {
+        try {
+            client.register();
+            server.register();
+
+            while (!interrupted()) {
+                long wait = Math.min(client.nextArrival(), server.nextArrival());
+                if (wait <= 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(Math.max(1, Math.min(SELECT_TIMEOUT, (wait + 999_999) / 1_000_000)));
+                }
+
+                // Messages queued by other threads (e.g. delayed messages) and shaped messages that have arrived
+                client.flush();
+                server.flush();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Endpoint endpoint = (Endpoint) key.attachment();
+
+                    if (key.isValid() && key.isWritable()) {
+                        endpoint.flush();
+                    }
+                    if (key.isValid() && key.isReadable() && !endpoint.read()) {
+                        endpoint.target.drain();
+                        return;
+                    }
+                }
+
+                toServer.checkTimeout();
+                toClient.checkTimeout();
+            }
+        } catch (IOException e) {
+            //e.printStackTrace();
+        } finally {
+            client.logUndelivered();
+            server.logUndelivered();
+            logger.log(testName, "General", "Client thread stopped.");
+            logger.log(testName, "General", "Server thread stopped.");
+            connection.relayStopped();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Interrupts the relay thread and wakes up the selector.
+     */
+    public void cancel() {
+        interrupt();
+        selector.wakeup();
+    }
+
+    /**
+     * Bytes on a shaped link, written once they have arrived.
+     */
+    private record Delayed(long arrival, ByteBuffer buffer) {
+    }
+
+    /**
+     * One side of the relay: the channel, its incoming line buffer and the messages waiting to be written.
+     */
+    private class Endpoint {
+        private final SocketChannel channel;
+        private final String name;
+        private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        private ByteBuffer in;
+        private SelectionKey key;
+        // Link of the bytes written to this endpoint, null if not shaped
+        private final Shaper shaper;
+        private final Queue<Delayed> delayed = new ConcurrentLinkedQueue<>();
+
+        // Endpoint the messages read here are sent to, and the Run applying the test
+        private Endpoint target;
+        private Run run;
+
+        Endpoint(SocketChannel channel, String name, Shaper shaper) {
+            this.channel = channel;
+            this.name = name;
+            this.shaper = shaper;
+            this.in = allocate(BUFFER_SIZE);
+        }
+
+        /**
+         * Queues bytes to be written, on a shaped link they are delayed until their arrival.
+         * Can be called from any thread.
+         * @return System.nanoTime() at which the bytes are written, on a shaped link their arrival
+         */
+        long enqueue(ByteBuffer buffer) {
+            if (shaper == null) {
+                pending.add(buffer);
+                return System.nanoTime();
+            }
+            // Arrival times and queue order must match
+            synchronized (this) {
+                long arrival = shaper.arrival(buffer.remaining(), System.nanoTime());
+                delayed.add(new Delayed(arrival, buffer));
+                return arrival;
+            }
+        }
+
+        /**
+         * @return ns until the next delayed bytes arrive, Long.MAX_VALUE if there are none
+         */
+        long nextArrival() {
+            Delayed next = delayed.peek();
+            return next == null ? Long.MAX_VALUE : next.arrival() - System.nanoTime();
+        }
+
+        /**
+         * Writes the pending and delayed bytes after the other side has closed, waiting for the delayed bytes
+         * to arrive for at most DRAIN_TIMEOUT, then half-closes the channel so the endpoint reads the end of the stream.
+         */
+        void drain() throws IOException {
+            long deadline = System.nanoTime() + DRAIN_TIMEOUT * 1_000_000;
+            flush();
+            while ((!pending.isEmpty() || !delayed.isEmpty()) && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    interrupt();
+                    break;
+                }
+                flush();
+            }
+            if (!pending.isEmpty()) {
+                logger.log(testName, "Relay", "-> " + name + ": " + pending.size() + " messages not written.");
+            }
+            channel.shutdownOutput();
+        }
+
+        void logUndelivered() {
+            if (!delayed.isEmpty()) {
+                logger.log(testName, "Shaping", "-> " + name + ": " + delayed.size() + " writes not delivered.");
+            }
+        }
+
+        void connect(Endpoint target, Run run) {
+            this.target = target;
+            this.run = run;
+        }
+
+        void register() throws IOException {
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Reads the available bytes and relays every complete line.
+         * @return false if the end of the stream has been reached
+         */
+        boolean read() throws IOException {
+            if (!in.hasRemaining()) {
+                // Line longer than the buffer
+                ByteBuffer larger = allocate(in.capacity() * 2);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+            int read = channel.read(in);
+            if (read == -1) {
+                if (run.isClient) {
+                    connection.serverClosed();
+                }
+                return false;
+            }
+
+            in.flip();
+            int start = raw ? relayRaw() : relayLines();
+            in.position(start);
+            in.compact();
+            return true;
+        }
+
+        /**
+         * Decodes and relays every complete line.
+         * @return Start of the first incomplete line
+         */
+        private int relayLines() throws IOException {
+            byte[] array = in.array();
+            int start = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (array[i] == '\n') {
+                    int end = i;
+                    if (end > start && array[end - 1] == '\r') {
+                        end--;
+                    }
+                    relay(new String(array, start, end - start, StandardCharsets.UTF_8), LINE_SEPARATOR);
+                    start = i + 1;
+                }
+            }
+            return start;
+        }
+
+        /**
+         * Relays every complete line, forwarding the bytes unchanged unless the line is selected for testing.
+         * Consecutive unchanged lines are written with one write.
+         * @return Start of the first incomplete line
+         */
+        private int relayRaw() throws IOException {
+            int start = 0;
+            int unchangedStart = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (in.get(i) != '\n') {
+                    continue;
+                }
+                boolean matches = byteMatcher.matches(in, start, i);
+                if (matches != ignoreCommands) {
+                    target.forward(in, unchangedStart, start);
+                    boolean crlf = i > start && in.get(i - 1) == '\r';
+                    int end = crlf ? i - 1 : i;
+                    relay(decode(start, end), crlf ? CRLF : LF);
+                    unchangedStart = i + 1;
+                } else {
+                    connection.messageRelayed();
+                    run.resetTimeout();
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    run.relayedUnchanged(in, start, end);
+                    if (capture != null) {
+                        capture.recordUnchanged(this == server, connection.getSessionId(), in, start, end);
+                    }
+                }
+                start = i + 1;
+            }
+            target.forward(in, unchangedStart, start);
+            return start;
+        }
+
+        private String decode(int from, int to) {
+            ByteBuffer line = in.duplicate();
+            line.limit(to).position(from);
+            return StandardCharsets.UTF_8.decode(line).toString();
+        }
+
+        private void relay(String line, byte[] lineSeparator) throws IOException {
+            if (line.isEmpty()) {
+                return;
+            }
+            long received = System.nanoTime();
+            logger.log(testName, name + " ->", line);
+            connection.messageRelayed();
+
+            boolean fromClient = this == client;
+            run.resetTimeout();
+            String data = run.handleMessage(line);
+            if (data == null) {
+                return;
+            }
+            if (!data.isEmpty()) {
+                logger.log(testName, fromClient ? "-> Server" : "-> Client", data);
+            }
+            long sent = send(!fromClient, data, lineSeparator);
+            run.relayed(received, sent);
+        }
+
+        /**
+         * Writes source[from, to) without copying if nothing else is waiting to be written.
+         * Bytes the channel does not accept are copied, as the read buffer is reused.
+         */
+        void forward(ByteBuffer source, int from, int to) throws IOException {
+            if (from == to) {
+                return;
+            }
+            ByteBuffer bytes = source.duplicate();
+            bytes.limit(to).position(from);
+            if (pending.isEmpty() && shaper == null) {
+                channel.write(bytes);
+                if (!bytes.hasRemaining()) {
+                    return;
+                }
+            }
+            ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes).flip();
+            enqueue(copy);
+            flush();
+        }
+
+        /**
+         * Writes as many pending messages (and delayed bytes that have arrived) as the channel accepts and
+         * waits for OP_WRITE if the socket buffer is full.
+         */
+        void flush() throws IOException {
+            Delayed arrived;
+            long now = System.nanoTime();
+            while ((arrived = delayed.peek()) != null && arrived.arrival() <= now) {
+                pending.add(delayed.poll().buffer());
+            }
+            ByteBuffer buffer;
+            while ((buffer = pending.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pending.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Raw mode reads into direct buffers, so unchanged bytes are written to the socket without copying.
+     */
+    private ByteBuffer allocate(int capacity) {
+        return raw ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,86 @@
+package com;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Hands out pairs of ports (game server port, test tool port) from a configured range,
+ *  so that tests running in parallel do not share ports.
+ */
+public class PortAllocator {
+    private static final long RETRY_INTERVAL = 200;
+
+    private final List<int[]> free = new ArrayList<>();
+
+    /**
+     * @param first First port of the range
+     * @param last Last port of the range (inclusive)
+     */
+    public PortAllocator(int first, int last) {
+        for (int port = first; port + 1 <= last; port += 2) {
+            free.add(new int[]{port, port + 1});
+        }
+        if (free.isEmpty()) {
+            throw new IllegalArgumentException("Port range " + first + "-" + last + " contains no port pair.");
+        }
+    }
+
+    /**
+     * Takes a port pair whose ports are not in use, waiting until one is available.
+     * @return {gameServerPort, testToolPort}
+     */
+    public synchronized int[] acquire() throws InterruptedException {
+        while (true) {
+            for (int i = 0; i < free.size(); i++) {
+                int[] pair = free.get(i);
+                if (isFree(pair[0]) && isFree(pair[1])) {
+                    free.remove(i);
+                    return pair;
+                }
+            }
+            wait(RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * Returns a port pair taken with acquire().
+     */
+    public synchronized void release(int[] pair) {
+        free.add(pair);
+        notifyAll();
+    }
+
+    /**
+     * Waits until all ports can be bound again, e.g. after the game processes have been stopped.
+     * @param timeout Maximum time to wait in ms
+     * @return true if the ports are free
+     */
+    public static boolean awaitFree(long timeout, int... ports) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int port : ports) {
+            while (!isFree(port)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(50);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a server socket can be bound to the port.
+     */
+    static boolean isFree(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
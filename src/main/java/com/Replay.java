@@ -0,0 +1,251 @@
+package com;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  Replays a capture file against a game server, without the game client.
+ *  Every captured session gets its own connection, the messages relayed to the game server are sent again
+ *  in their original order, at their original speed or as fast as possible.
+ *  A corpus file can be replayed as well: its anomaly inputs for the game server are sent one after another
+ *  in a single connection.
+ *  The answers of the game server and the output of the server JAR are written to the log.
+ */
+public class Replay {
+    private static final long CONNECT_TIMEOUT = 10000;
+    private static final long CONNECT_RETRY = 100;
+    // Time given to the game server to answer the last messages
+    private static final long LINGER = 1000;
+    // Time between the anomaly inputs of a corpus, so that the answers and errors can be told apart
+    private static final long CORPUS_GAP = 100;
+
+    private final Path capturePath;
+    private final int port;
+    private final boolean fast;
+    private final Logger logger;
+    private final TestMonitor monitor;
+    private final Map<Integer, Session> sessions = new LinkedHashMap<>();
+
+    public Replay(Path capturePath, int port, boolean fast, Logger logger, TestMonitor monitor) {
+        this.capturePath = capturePath;
+        this.port = port;
+        this.fast = fast;
+        this.logger = logger;
+        this.monitor = monitor;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Invalid arguments. Please use the following syntax:");
+            System.out.println("java -cp <network-fuzzing-tool.jar> com.Replay (<capture.cap> | <corpus>) (<game.jar> | <port>) [fast]");
+            return;
+        }
+        Path capturePath = Paths.get(args[0]);
+        String target = args[1];
+        boolean fast = args.length > 2 && args[2].equalsIgnoreCase("fast");
+
+        Logger logger = new Logger(capturePath.getFileName().toString(), false, false);
+        TestMonitor monitor = new TestMonitor();
+        RunGame serverJAR = null;
+        int port;
+        if (target.endsWith(".jar")) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            serverJAR = new RunGame(false, target, port, port, logger, "Replay");
+            serverJAR.setMonitor(monitor);
+            serverJAR.start();
+        } else {
+            port = Integer.parseInt(target);
+        }
+
+        try {
+            new Replay(capturePath, port, fast, logger, monitor).run();
+        } finally {
+            if (serverJAR != null) {
+                serverJAR.cancel();
+                serverJAR.join(5000);
+            }
+            logger.close();
+        }
+    }
+
+    /**
+     * Sends the captured client messages to the game server.
+     * Stops early if the game server exits.
+     */
+    public void run() throws IOException, InterruptedException {
+        if (Corpus.isCorpus(capturePath)) {
+            replayCorpus();
+            return;
+        }
+        long replayed = 0;
+        long start = System.nanoTime();
+        try (Capture.Reader reader = new Capture.Reader(capturePath)) {
+            logger.log("Replay", "General", "Replaying " + capturePath + (fast ? " as fast as possible." : " at original speed."));
+            // Capture time (us) and replay time (ns) of the first message, the following ones keep their distance
+            long firstTime = -1;
+            long firstSent = 0;
+            Capture.Entry entry;
+            while ((entry = reader.next()) != null && monitor.getReason() == null) {
+                if (entry.isToClient() || entry.getRelayed() == null) {
+                    continue;
+                }
+                Session session = session(entry.getSession());
+                if (firstTime < 0) {
+                    firstTime = entry.getTime();
+                    firstSent = System.nanoTime();
+                } else if (!fast) {
+                    long wait = (entry.getTime() - firstTime) * 1000 - (System.nanoTime() - firstSent);
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                }
+                String message = new String(entry.getRelayed(), StandardCharsets.UTF_8);
+                logger.log(session.name, "-> Server", message + (entry.getMutation().isEmpty() ? "" : " (" + entry.getMutation() + ")"));
+                try {
+                    session.send(entry.getRelayed());
+                } catch (IOException e) {
+                    logger.log(session.name, "Error", "Sending failed: " + e.getMessage());
+                }
+                replayed++;
+            }
+            monitor.await(LINGER);
+        } finally {
+            for (Session session : sessions.values()) {
+                session.close();
+            }
+        }
+        report(replayed, start);
+    }
+
+    /**
+     * Sends the anomaly inputs of a corpus for the game server, CORPUS_GAP apart unless fast.
+     * Stops early if the game server exits.
+     */
+    private void replayCorpus() throws IOException, InterruptedException {
+        long replayed = 0;
+        long start = System.nanoTime();
+        try (Corpus.Reader reader = new Corpus.Reader(capturePath)) {
+            logger.log("Replay", "General", "Replaying the anomaly inputs of corpus " + capturePath + ".");
+            Corpus.Entry entry;
+            while ((entry = reader.next()) != null && monitor.getReason() == null) {
+                if (entry.isToClient() || !entry.isAnomaly()) {
+                    continue;
+                }
+                Session session = session(1);
+                if (replayed > 0 && !fast) {
+                    Thread.sleep(CORPUS_GAP);
+                }
+                logger.log(session.name, "-> Server", new String(entry.getMessage(), StandardCharsets.UTF_8));
+                try {
+                    session.send(entry.getMessage());
+                } catch (IOException e) {
+                    logger.log(session.name, "Error", "Sending failed: " + e.getMessage());
+                }
+                replayed++;
+            }
+            monitor.await(LINGER);
+        } finally {
+            for (Session session : sessions.values()) {
+                session.close();
+            }
+        }
+        report(replayed, start);
+    }
+
+    private void report(long replayed, long start) {
+        String summary = "Replayed " + replayed + " messages in " + sessions.size() + " sessions in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.";
+        if (monitor.getReason() != null) {
+            summary += " " + monitor.getReason();
+        }
+        logger.log("Replay", "General", summary);
+        System.out.println(summary);
+    }
+
+    /**
+     * @return Connection of the captured session, opened on its first message
+     */
+    private Session session(int id) throws IOException, InterruptedException {
+        Session session = sessions.get(id);
+        if (session == null) {
+            session = new Session("Replay#" + id, connect());
+            sessions.put(id, session);
+        }
+        return session;
+    }
+
+    /**
+     * Connects to the game server, retrying while it is still starting.
+     */
+    private Socket connect() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() >= deadline || monitor.getReason() != null) {
+                    throw e;
+                }
+            }
+            Thread.sleep(CONNECT_RETRY);
+        }
+    }
+
+    /**
+     * A replayed session: its socket and the thread logging the answers of the game server.
+     */
+    private class Session {
+        private final String name;
+        private final Socket socket;
+        private final OutputStream out;
+
+        Session(String name, Socket socket) throws IOException {
+            this.name = name;
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            Thread reader = new Thread(this::readAnswers, name + "-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(byte[] message) throws IOException {
+            byte[] line = new byte[message.length + 1];
+            System.arraycopy(message, 0, line, 0, message.length);
+            line[message.length] = '\n';
+            out.write(line);
+            out.flush();
+        }
+
+        private void readAnswers() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    logger.log(name, "Server ->", line);
+                }
+            } catch (IOException e) {
+                // Socket closed
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com;
+
+import com.mutator.Feedback;
+import com.test.TestToolConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  Response-time oracle: pairs the commands sent by the game client with the answers of the game server
+ *  and records the reaction time of the server per command.
+ *  Without a responseMapping, a command is answered by the next message of the game server.
+ *  With a mapping, only the mapped commands are tracked and a command is answered by the next message
+ *  of the game server whose command is one of its mapped responses.
+ *  The command of a message is the text before the first protocol separator.
+ *  The results of the Relay test of a game are kept as baseline, later tests of the game are compared with it.
+ */
+public class ResponseTimes {
+    public static final String BASELINE_TEST = "Relay";
+    // Requests waiting for an answer per session, the oldest ones are dropped first
+    private static final int MAX_PENDING = 1024;
+    // Different commands recorded per test, further commands are counted as OTHER
+    private static final int MAX_COMMANDS = 256;
+    private static final String OTHER = "(other)";
+    // Samples required before a command is compared with the baseline
+    private static final long MIN_SAMPLES = 3;
+    // An answer slower than SPIKE_FACTOR times the mean of its command (and at least SPIKE_MIN) is a latency spike
+    private static final double SPIKE_FACTOR = 5;
+    private static final long SPIKE_MIN = 1_000_000;
+    private static final long SPIKE_SAMPLES = 10;
+
+    // p50 and p99 per command of the Relay test, per game
+    private static final Map<String, Map<String, long[]>> BASELINES = new ConcurrentHashMap<>();
+
+    private final String separator;
+    private final byte[] separatorBytes;
+    // Answer commands per mapped command, null without a responseMapping
+    private final Map<String, Set<String>> mapping;
+    private final double regressionFactor;
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final LongAdder unanswered = new LongAdder();
+    private Feedback feedback;
+
+    public ResponseTimes(TestToolConfig configTest) {
+        this.separator = configTest.getProtocolSeparator();
+        this.separatorBytes = separator == null || separator.isEmpty() ? null : separator.getBytes(StandardCharsets.UTF_8);
+        this.mapping = compile(configTest.getResponseMapping());
+        this.regressionFactor = configTest.getRegressionFactor();
+    }
+
+    /**
+     * @return Answer commands per command, null if there is no mapping (checked by Config.load)
+     */
+    private static Map<String, Set<String>> compile(Map<String, String[]> responseMapping) {
+        if (responseMapping == null) {
+            return null;
+        }
+        Map<String, Set<String>> compiled = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : responseMapping.entrySet()) {
+            compiled.put(entry.getKey(), Set.copyOf(Arrays.asList(entry.getValue())));
+        }
+        return compiled;
+    }
+
+    /**
+     * @return Command of the message, null if the message is empty
+     */
+    String commandOf(String message) {
+        int end = separatorBytes == null ? -1 : message.indexOf(separator);
+        String command = (end < 0 ? message : message.substring(0, end)).trim();
+        return command.isEmpty() ? null : command;
+    }
+
+    /**
+     * @return Command of the UTF-8 message in buffer[from, to), decoding only the command
+     */
+    String commandOf(ByteBuffer buffer, int from, int to) {
+        int end = to;
+        if (separatorBytes != null) {
+            search:
+            for (int i = from; i <= to - separatorBytes.length; i++) {
+                for (int j = 0; j < separatorBytes.length; j++) {
+                    if (buffer.get(i + j) != separatorBytes[j]) {
+                        continue search;
+                    }
+                }
+                end = i;
+                break;
+            }
+        }
+        byte[] bytes = new byte[end - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        String command = new String(bytes, StandardCharsets.UTF_8).trim();
+        return command.isEmpty() ? null : command;
+    }
+
+    /**
+     * @param feedback Receives a LATENCY_SPIKE signal for unusually slow answers
+     */
+    void setFeedback(Feedback feedback) {
+        this.feedback = feedback;
+    }
+
+    /**
+     * @param sessionId Session the latency spikes are reported for
+     * @return Tracker of the requests and answers of a session
+     */
+    Session newSession(int sessionId) {
+        return new Session(sessionId);
+    }
+
+    private void record(String command, long nanos, int sessionId) {
+        Histogram histogram = latencies.get(command);
+        if (histogram == null) {
+            if (latencies.size() >= MAX_COMMANDS) {
+                command = OTHER;
+            }
+            histogram = latencies.computeIfAbsent(command, c -> new Histogram());
+        }
+        if (feedback != null && histogram.getCount() >= SPIKE_SAMPLES && nanos >= SPIKE_MIN
+                && nanos > histogram.getMean() * SPIKE_FACTOR) {
+            feedback.signal(Feedback.Signal.LATENCY_SPIKE, sessionId,
+                    String.format("%s: %.2f ms (mean %.2f ms)", command, nanos / 1e6, histogram.getMean() / 1e6));
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @return One line per command with the number of answers and the percentiles of the reaction time
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram histogram = entry.getValue();
+            lines.add(String.format("%s: %d answers, p50 %.2f ms p90 %.2f ms p99 %.2f ms max %.2f ms",
+                    entry.getKey(), histogram.getCount(), histogram.getPercentile(50) / 1e6,
+                    histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        if (unanswered.sum() > 0) {
+            lines.add(unanswered.sum() + " commands without answer.");
+        }
+        return lines;
+    }
+
+    /**
+     * Keeps the results of the Relay test as baseline of the game.
+     */
+    public void saveBaseline(String gameName) {
+        Map<String, long[]> baseline = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() >= MIN_SAMPLES) {
+                baseline.put(entry.getKey(), new long[]{histogram.getPercentile(50), histogram.getPercentile(99)});
+            }
+        }
+        BASELINES.put(gameName, baseline);
+    }
+
+    /**
+     * Compares the reaction times with the Relay test of the game.
+     * @return One line per command whose p50 or p99 is regressionFactor times slower than in the baseline,
+     * empty if there are no regressions or no baseline
+     */
+    public List<String> regressions(String gameName) {
+        List<String> lines = new ArrayList<>();
+        Map<String, long[]> baseline = BASELINES.get(gameName);
+        if (baseline == null) {
+            return lines;
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            long[] base = baseline.get(entry.getKey());
+            Histogram histogram = entry.getValue();
+            if (base == null || histogram.getCount() < MIN_SAMPLES) {
+                continue;
+            }
+            long p50 = histogram.getPercentile(50);
+            long p99 = histogram.getPercentile(99);
+            if (p50 > base[0] * regressionFactor || p99 > base[1] * regressionFactor) {
+                lines.add(String.format("%s: p50 %.2f ms (%s: %.2f ms), p99 %.2f ms (%s: %.2f ms)",
+                        entry.getKey(), p50 / 1e6, BASELINE_TEST, base[0] / 1e6, p99 / 1e6, BASELINE_TEST, base[1] / 1e6));
+            }
+        }
+        return lines;
+    }
+
+    static boolean hasBaseline(String gameName) {
+        return BASELINES.containsKey(gameName);
+    }
+
+    /**
+     * Requests of a session waiting for an answer. Used by both directions of the session.
+     */
+    class Session {
+        private final Deque<String> commands = new ArrayDeque<>();
+        private final Deque<Long> times = new ArrayDeque<>();
+        private final int sessionId;
+
+        Session(int sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        /**
+         * A command has been sent to the game server.
+         */
+        synchronized void request(String command, long time) {
+            if (command == null || (mapping != null && !mapping.containsKey(command))) {
+                return;
+            }
+            if (commands.size() == MAX_PENDING) {
+                commands.poll();
+                times.poll();
+                unanswered.increment();
+            }
+            commands.add(command);
+            times.add(time);
+        }
+
+        /**
+         * A message has been received from the game server.
+         */
+        synchronized void response(String command, long time) {
+            if (commands.isEmpty()) {
+                return;
+            }
+            if (mapping == null) {
+                record(commands.poll(), time - times.poll(), sessionId);
+                return;
+            }
+            if (command == null) {
+                return;
+            }
+            Iterator<String> pendingCommands = commands.iterator();
+            Iterator<Long> pendingTimes = times.iterator();
+            while (pendingCommands.hasNext()) {
+                String request = pendingCommands.next();
+                long requestTime = pendingTimes.next();
+                if (mapping.get(request).contains(command)) {
+                    pendingCommands.remove();
+                    pendingTimes.remove();
+                    record(request, time - requestTime, sessionId);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Counts the requests that have not been answered when the session ends.
+         */
+        synchronized void close() {
+            unanswered.add(commands.size());
+            commands.clear();
+            times.clear();
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package com;
 
+import com.mutator.Feedback;
+import com.mutator.MutationContext;
+import com.mutator.Mutator;
+import com.mutator.Mutators;
+import com.mutator.Seeds;
+import com.test.Protocol;
 import com.test.Test;
 import com.test.TestToolConfig;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Locale;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.random.RandomGenerator;
 
 /**
  *  (Threaded) Class that runs the actual tests.
  *  Incoming messages are picked up with receiveFromClient() / receiveFromServer(),
- *  test actions are applied with checkAndExecuteTest(),
+ *  test actions are applied with checkAndExecuteTest() by the Mutator of the test,
  *  results are sent back with sendToClient() / sendToServer().
  */
-public class Run extends Thread {
+public class Run implements Runnable, MutationContext, Feedback.Listener {
+    // Anomalies observed up to this time after a mutation are attributed to it
+    private static final long ANOMALY_WINDOW = 1_000_000_000L;
+
     Connection connection;
     boolean isClient;
     private final Test test;
@@ -26,6 +37,8 @@ public class Run extends Thread {
     private final String[] commands;
     private final boolean ignoreCommands;
     private final String[] specialCharacters;
+    private final CommandMatcher commandMatcher;
+    private final Protocol protocol;
 
     // Config test data
     private final String testName;
@@ -34,6 +47,37 @@ public class Run extends Thread {
 
     private final int timeout;
 
+    private final Mutator mutator;
+    // Capture file of the test (null if disabled) and the session recorded with the messages
+    private final Capture capture;
+    private final int sessionId;
+    private final Metrics metrics;
+    // Pairs the commands of the session with the answers of the game server, null if disabled
+    private final ResponseTimes responseTimes;
+    private final ResponseTimes.Session responses;
+    // Behavior of the game observed by all sessions of the test
+    private final Feedback feedback;
+    // Unique messages and anomaly inputs kept across runs, null if disabled
+    private final Corpus corpus;
+    // Last mutated or additionally sent message of this direction and when it was relayed
+    // Command of the message handleMessage() passes on to the game server, requested once it is written
+    private String request;
+    private volatile String lastMutant;
+    private volatile long lastMutantTime;
+    // Arrival of the previous message of the game server (isClient only)
+    private long lastServerMessage;
+    // Random numbers of this direction, derived from the seed of the test
+    private final SplittableRandom random;
+    // Scheduler for messages sent later (e.g. ScheduledDelay test), created on first use
+    private volatile ScheduledExecutorService scheduler;
+    private volatile long lastMessageTimestamp = System.currentTimeMillis();
+    private volatile long timeoutMultiplier = 1;
+
+    // Threads of this direction: the relay loop and, for virtual threads, the timeout watchdog
+    private final boolean virtualThreads;
+    private Thread thread;
+    private Thread watchdog;
+
     public Run(Connection connection, boolean isClient, Test test, Logger logger, TestToolConfig configTest) {
         this.isClient = isClient;
         this.connection = connection;
@@ -53,9 +97,33 @@ public class Run extends Thread {
         // Config test data
         this.protocolSeparator = configTest.getProtocolSeparator();
         this.commands = configTest.getCommands();
+        this.commandMatcher = new CommandMatcher(commands);
         this.ignoreCommands = configTest.isIgnoreCommands();
         this.specialCharacters = configTest.getSpecialCharacters();
-        this.testNameLog = "Test_" + testName;
+        this.protocol = configTest.getProtocol();
+        this.testNameLog = connection.getTestNameLog();
+        this.virtualThreads = configTest.isVirtualThreads();
+        this.capture = connection.getCapture();
+        this.metrics = connection.getMetrics();
+        this.responseTimes = connection.getResponseTimes();
+        this.responses = connection.getResponses();
+        this.feedback = connection.getFeedback();
+        this.corpus = connection.getCorpus();
+        this.sessionId = connection.getSessionId();
+        this.random = new SplittableRandom(connection.getSeed() + 2L * sessionId + (isClient ? 1 : 0));
+
+        // Resolve the test once, instead of looking it up for every message
+        this.mutator = Mutators.create(testName);
+    }
+
+    /**
+     * Initializes the mutator with this Run as its context, called once the Run is constructed.
+     */
+    void init() {
+        mutator.init(this);
+        if (corpus != null) {
+            feedback.addListener(sessionId, this);
+        }
     }
 
     @Override
@@ -67,47 +135,26 @@ public class Run extends Thread {
         }
     }
 
-    /**
-     * Sleeps the thread for the specified amount of time.
-     */
-    void waitDelay(int delay) {
-        try {
-            Thread.sleep(delay);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Processes input from the game client and - depending on the current running test - relays
      * it to the game server.
      */
     void processClient() {
-        long timestamp = System.currentTimeMillis();
-        long timeoutMultiplier =  1;
+        resetTimeout();
 
-        while (!interrupted()) {
+        while (!Thread.interrupted()) {
             try {
                 String data = connection.receiveFromClient();
-
-                // Check for timeout and repeat warnings in intervals
-                long timeDiff = System.currentTimeMillis() - timestamp;
-                if (timeDiff >= timeout * timeoutMultiplier) {
-                    logger.log(testNameLog, "Warning",
-                            "Timeout: No new client messages since " + timeDiff/1000 + " sec.");
-                    timeoutMultiplier++;
-                }
+                checkTimeout();
 
                 if (!data.isEmpty()) {
-                    // Reset timeout
-                    timestamp = System.currentTimeMillis();
-                    timeoutMultiplier = 1;
-
-                    // Check whether to only modify commands or everything else
-                    if ((!ignoreCommands && isCommand(data)) || (ignoreCommands && !isCommand(data))) {
-                        data = checkAndExecuteTest(data);
+                    long received = System.nanoTime();
+                    resetTimeout();
+                    connection.messageRelayed();
+                    data = handleMessage(data);
+                    if (data != null) {
+                        relayed(received, connection.sendToServer(data));
                     }
-                    connection.sendToServer(data);
                 }
             } catch (IOException | InterruptedException e) {
                 //System.out.println("processClient error: " + e);
@@ -115,6 +162,7 @@ public class Run extends Thread {
                 break;
             }
         }
+        connection.threadStopped();
     }
 
     /**
@@ -122,31 +170,22 @@ public class Run extends Thread {
      * it to the game client.
      */
     void processServer() {
-        long timestamp = System.currentTimeMillis();
-        long timeoutMultiplier =  1;
+        resetTimeout();
 
-        while (!interrupted()) {
+        while (!Thread.interrupted()) {
             try {
                 String data = connection.receiveFromServer();
-
-                // Check for timeout and repeat warnings in intervals
-                long timeDiff = System.currentTimeMillis() - timestamp;
-                if (timeDiff >= timeout * timeoutMultiplier) {
-                    logger.log(testNameLog, "Warning",
-                            "Timeout: No new server messages since " + timeDiff/1000 + " sec.");
-                    timeoutMultiplier++;
-                }
+                checkTimeout();
 
                 if (!data.isEmpty()) {
-                    // Reset timeout
-                    timestamp = System.currentTimeMillis();
-                    timeoutMultiplier = 1;
-
-                    // Check whether to only modify commands or everything else
-                    if ((!ignoreCommands && isCommand(data)) || (ignoreCommands && !isCommand(data))) {
-                        data = checkAndExecuteTest(data);
+                    long received = System.nanoTime();
+                    resetTimeout();
+                    connection.messageRelayed();
+                    data = handleMessage(data);
+                    if (data != null) {
+                        connection.sendToClient(data);
+                        relayed(received, System.nanoTime());
                     }
-                    connection.sendToClient(data);
                 }
             } catch (IOException | InterruptedException e) {
                 //System.out.println("processServer error: " + e);
@@ -154,258 +193,323 @@ public class Run extends Thread {
                 break;
             }
         }
+        connection.threadStopped();
     }
 
     /**
-     * Interrupts the thread and breaks the while loops.
+     * Applies the configured test to a message received from the other side.
+     * Also used by the NIO relay, which drives the tests without starting this thread.
+     * @param data Received message.
+     * @return Message to relay, or null if the test takes care of sending it (e.g. ScheduledDelay).
      */
-    public void cancel() {
-        interrupt();
+    String handleMessage(String data) {
+        long now = System.nanoTime();
+        messageReceived(Metrics.utf8Length(data), now);
+        String command = responses != null ? responseTimes.commandOf(data) : null;
+        if (responses != null && isClient) {
+            responses.response(command, now);
+            feedback.responseReceived(command, sessionId);
+        }
+
+        if (corpus != null) {
+            corpus.add(data, isClient);
+        }
+
+        String result = data;
+        // Check whether to only modify commands or everything else
+        if ((!ignoreCommands && isCommand(data)) || (ignoreCommands && !isCommand(data))) {
+            result = checkAndExecuteTest(data);
+            if (result == null) {
+                metrics.messageHandled();
+            } else if (!result.equals(data)) {
+                metrics.mutationApplied(result.isEmpty());
+                if (corpus != null) {
+                    mutated(result);
+                }
+            }
+            if (capture != null) {
+                capture.record(isClient, sessionId, mutator.getName(), data, result);
+            }
+        } else {
+            flushMutator();
+            if (capture != null) {
+                capture.record(isClient, sessionId, "", data, data);
+            }
+        }
+
+        // Only commands that reach the game server expect an answer, measured from the time they are written
+        request = responses != null && !isClient && result != null && !result.isEmpty() ? command : null;
+        return result;
     }
 
     /**
-     * Evaluates whether the provided string contains a command from the commands array.
-     * @param message String that is to be evaluated
-     * @return true if the message contains a command
+     * Counts a message the raw relay forwards unchanged from buffer[from, to), without passing it to the test.
      */
-    boolean isCommand(String message) {
-        for (String s: commands) {   // Could use stream here - maybe useful with more items?
-            if (message.toLowerCase(Locale.ROOT).contains(s.toLowerCase(Locale.ROOT))) {
-                return true;
-            }
+    void relayedUnchanged(ByteBuffer buffer, int from, int to) {
+        long now = System.nanoTime();
+        messageReceived(to - from, now);
+        flushMutator();
+        if (corpus != null) {
+            corpus.add(buffer, from, to, isClient);
+        }
+        if (responses == null) {
+            return;
+        }
+        String command = responseTimes.commandOf(buffer, from, to);
+        if (isClient) {
+            responses.response(command, now);
+            feedback.responseReceived(command, sessionId);
+        } else {
+            responses.request(command, now);
         }
-        return false;
     }
 
     /**
-     * Checks which test is currently running and executes the corresponding test method.
-     * @param message Message string.
-     * @return Modified message (if applicable), depending on the current test.
+     * Remembers a message changed or added by the test, it is kept in the corpus if an anomaly follows.
      */
-    String checkAndExecuteTest(String message) {
-        String newMessage = "";
-        try{
-            switch (testName) {
-                case "Relay":
-                    newMessage = testRelay(message);
-                    break;
-                case "Delay":
-                    newMessage = testDelay(message);
-                    break;
-                case "Drop":
-                    newMessage = testDrop(message);
-                    break;
-                case "Repeat":
-                    newMessage = testRepeat(message);
-                    break;
-                case "TransformPartial":
-                    newMessage = testTransformPartial(message);
-                    break;
-                case "DeletePartial":
-                    newMessage = testDeletePartial(message);
-                    break;
-                case "ProtocolSeparators":
-                    newMessage = testProtocolSeparators(message);
-                    break;
-                case "RandomString":
-                    newMessage = testRandomString(message);
-                    break;
-                case "RandomBitString":
-                    newMessage = testRandomBitString(message);
-                    break;
-                case "SpecialChars":
-                    newMessage = testSpecialChars(message);
-                    break;
-                default:
-                    newMessage = testRelay(message);
-                    break;
-            }
-        } catch (IOException e) {
-            //e.printStackTrace();
-            logger.log(testNameLog, "General", e.getMessage());
+    private void mutated(String message) {
+        lastMutantTime = System.nanoTime();
+        lastMutant = message;
+    }
+
+    /**
+     * Keeps the last mutated message in the corpus if the game shows an anomaly shortly after it was relayed.
+     */
+    @Override
+    public void onSignal(Feedback.Signal signal, int session, String detail, boolean first) {
+        // New responses are normal behavior, errors of a game JAR are caused by the messages sent to it
+        if (signal == Feedback.Signal.NEW_RESPONSE
+                || (signal == Feedback.Signal.SERVER_ERROR && isClient)
+                || (signal == Feedback.Signal.CLIENT_ERROR && !isClient)) {
+            return;
+        }
+        String message = lastMutant;
+        if (message == null || System.nanoTime() - lastMutantTime > ANOMALY_WINDOW) {
+            return;
+        }
+        if (corpus.addAnomaly(message, isClient) && first) {
+            log("Kept anomaly input in corpus after " + signal + ": " + message);
         }
-        return newMessage;
     }
 
     /**
-     * Relay Test: Relays the message without modification.
-     * @param message Message string.
-     * @return Unmodified message.
+     * Counts a received message in the metrics of the test.
+     * @param bytes Length of the message in bytes
+     * @param now System.nanoTime() when the message was received
      */
-    String testRelay(String message) {
-        return message;
+    private void messageReceived(long bytes, long now) {
+        metrics.messageReceived(isClient, bytes);
+        if (isClient) {
+            if (lastServerMessage != 0) {
+                metrics.serverGap(now - lastServerMessage);
+            }
+            lastServerMessage = now;
+        }
     }
 
     /**
-     * Delay Test: Relays the message after a delay that is specified in the test config.
-     * @param message Message string.
-     * @return Unmodified message after a delay.
+     * Called once the result of handleMessage() has been sent.
+     * @param received System.nanoTime() when the relayed message was read
+     * @param sent System.nanoTime() when the message is written, on a shaped link its arrival
      */
-    String testDelay(String message) {
-        int duration = Integer.parseInt(testValue);
-        if (duration > 0) {
-            logger.log(testNameLog, clientOrServer, "Delaying for " + duration  + " sec.");
-            waitDelay(duration * 1000);
+    void relayed(long received, long sent) {
+        metrics.relayed(System.nanoTime() - received);
+        if (request != null) {
+            responses.request(request, sent);
+            request = null;
         }
-        return message;
     }
 
     /**
-     * Drop Test: Drops the message, changing it to an empty string.
-     * @param message Message string.
-     * @return Empty string.
+     * Resets the timeout after a message has been received.
      */
-    String testDrop(String message) {
-        logger.log(testNameLog, clientOrServer, "Dropping message " + message);
-        return "";
+    void resetTimeout() {
+        lastMessageTimestamp = System.currentTimeMillis();
+        timeoutMultiplier = 1;
     }
 
     /**
-     * Repeat Test: Sends the provided message repeatedly for a number of times specified in the config.
-     * @param message Message string.
-     * @return Unmodified message.
+     * Checks for timeout and repeats warnings in intervals.
      */
-    String testRepeat(String message) throws IOException {
-        int times = Integer.parseInt(testValue) - 1;
-        if (times > 0) {
-            logger.log(testNameLog, clientOrServer,
-                    "Repeating message " + message + " " + (times + 1) + " times.");
-            for (int i = times; i > 0; i--) {
-                if (isClient) {
-                    connection.sendToClient(message);
-                }
-                else {
-                    connection.sendToServer(message);
-                }
-            }
+    void checkTimeout() {
+        long timeDiff = System.currentTimeMillis() - lastMessageTimestamp;
+        if (timeDiff >= timeout * timeoutMultiplier) {
+            // Messages for the client are read from the server and vice versa
+            String source = isClient ? "server" : "client";
+            logger.log(testNameLog, "Warning",
+                    "Timeout: No new " + source + " messages since " + timeDiff/1000 + " sec.");
+            timeoutMultiplier++;
         }
-        return message;
     }
 
     /**
-     * TransformPartial Test: Replaces a random character in the message.
-     * @param message  Message string.
-     * @return
+     * Starts the relay loop of this direction.
+     * With virtual threads, the loop blocks on reads, so a watchdog checks the timeout in the meantime.
      */
-    String testTransformPartial(String message) {
-        char[] chars = message.toCharArray();
-        int random = (int)(Math.random() * message.length());
+    public void start() {
+        String name = testNameLog + "-" + clientOrServer;
+        thread = Threads.start(name, this, virtualThreads);
+        if (virtualThreads) {
+            watchdog = Threads.start(name + "-watchdog", this::watchTimeout, true);
+        }
+    }
 
-        // Replacement characters to choose from:
-        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.:,;-";
-        Random ran = new Random();
-        char randomChar = alphabet.charAt(ran.nextInt(alphabet.length()));
-        chars[random] = randomChar;
-        String newMessage = new String(chars);
-        logger.log(testNameLog, clientOrServer,
-                "Message " + message + " partially transformed into " + newMessage);
-        return newMessage;
+    private void watchTimeout() {
+        try {
+            while (!Thread.interrupted()) {
+                Thread.sleep(100);
+                checkTimeout();
+            }
+        } catch (InterruptedException e) {
+            // Cancelled
+        }
     }
 
     /**
-     * DeletePartial Test: Deletes a random character of the message.
-     * @param message Message string.
-     * @return Message with random character removed.
+     * Interrupts the thread and breaks the while loops.
      */
-    String testDeletePartial(String message) {
-        int random = (int)(Math.random() * (message.length()-1));
-        if (random == 0) { // In case the random number generated is 0.
-            random = 1;
+    public void cancel() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (watchdog != null) {
+            watchdog.interrupt();
+        }
+        if (scheduler != null) {
+            int pending = scheduler.shutdownNow().size();
+            if (pending > 0) {
+                logger.log(testNameLog, clientOrServer, pending + " delayed messages not delivered.");
+            }
         }
-        String newMessage = message.substring(0, random) + message.substring(random + 1);
-        logger.log(testNameLog, clientOrServer,
-                "Message " + message + " partially deleted to " + newMessage);
-        return newMessage;
     }
 
     /**
-     * ProtocolSeparators Test: Adds multiple protocol separators to the message.
-     * @param message Message string.
-     * @return Message with multiple protocol separators added.
+     * Evaluates whether the provided string contains a command from the commands array.
+     * @param message String that is to be evaluated
+     * @return true if the message contains a command
      */
-    String testProtocolSeparators(String message) {
-        // TODO: Import from config
-        int random = (int)(Math.random() * 10) + 1; // +1 for if random generated number is 0
-        message = message + String.valueOf(protocolSeparator).repeat(Math.max(0, random));
-        logger.log(testNameLog, clientOrServer,
-                "Added multiple protocol separators to message " + message);
-        return message + protocolSeparator;
+    boolean isCommand(String message) {
+        return commandMatcher.matches(message);
     }
 
     /**
-     * RandomString Test: Relays the message and also sends a random string afterwards.
+     * Executes the mutator of the current test, resolved once in the constructor.
      * @param message Message string.
-     * @return Unmodified message.
+     * @return Modified message (if applicable), depending on the current test.
      */
-    String testRandomString(String message) throws IOException {
-        // Adapted from https://www.baeldung.com/java-random-string
-        int leftLimit = 48; // numeral '0'
-        int rightLimit = 122; // letter 'z'
-        int randomStringLength = Integer.parseInt(testValue);
-        Random random = new Random();
-
-        String randomString = random.ints(leftLimit, rightLimit + 1)
-                .filter(i -> (i <= 57 || i >= 65) && (i <= 90 || i >= 97))
-                .limit(randomStringLength)
-                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
-                .toString();
-
-        logger.log(testNameLog, clientOrServer,
-                "Sending random string " + randomString);
-
-        if (isClient) {
-            connection.sendToClient(randomString);
-        }
-        else {
-            connection.sendToServer(randomString);
+    String checkAndExecuteTest(String message) {
+        try {
+            return mutator.mutate(message, this);
+        } catch (IOException e) {
+            //e.printStackTrace();
+            logger.log(testNameLog, "General", e.getMessage());
         }
-        return message;
+        return "";
     }
 
     /**
-     * RandomBitString Test: Relays the message and also sends a random (bit)string afterwards.
-     * @param message Message string.
-     * @return Unmodified message.
+     * Lets the mutator write the messages it holds back before a message it does not see is relayed.
      */
-    String testRandomBitString(String message) throws IOException {
-        // Adapted from https://www.baeldung.com/java-random-string
-        byte[] array = new byte[Integer.parseInt(testValue)]; // Length is bounded by value
-        new Random().nextBytes(array);
-        String randomBitString = new String(array, StandardCharsets.UTF_8);
+    private void flushMutator() {
+        try {
+            mutator.flush(this);
+        } catch (IOException e) {
+            logger.log(testNameLog, "General", e.getMessage());
+        }
+    }
 
-        logger.log(testNameLog, clientOrServer,
-                "Sending random bitstring " + randomBitString);
+    @Override
+    public Test getTest() {
+        return test;
+    }
 
+    @Override
+    public String getTestValue() {
+        return testValue;
+    }
+
+    @Override
+    public String getProtocolSeparator() {
+        return protocolSeparator;
+    }
+
+    @Override
+    public String[] getSpecialCharacters() {
+        return specialCharacters;
+    }
+
+    @Override
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public boolean isClient() {
+        return isClient;
+    }
+
+    @Override
+    public void send(String message) throws IOException {
+        if (corpus != null) {
+            mutated(message);
+        }
+        if (capture != null) {
+            capture.record(isClient, sessionId, mutator.getName(), null, message);
+        }
         if (isClient) {
-            connection.sendToClient(randomBitString);
+            connection.sendToClient(message);
         }
         else {
-            connection.sendToServer(randomBitString);
+            long sent = connection.sendToServer(message);
+            if (responses != null && !message.isEmpty()) {
+                responses.request(responseTimes.commandOf(message), sent);
+            }
         }
-        return message;
     }
 
-    /**
-     * SpecialChars Test: Transforms the command, replacing the command argument with randomly chosen
-     * special character of those specified in the config.
-     * @param message Message string.
-     * @return Message with special character added.
-     */
-    String testSpecialChars(String message) {
-        // Search for protocol separator
-        int indexSeparator = message.indexOf(protocolSeparator);
+    @Override
+    public void sendBytes(byte[] bytes, int offset, int length) throws IOException {
+        connection.sendBytes(isClient, bytes, offset, length);
+    }
 
-        // If no protocol separator is found, add one
-        if (indexSeparator == -1) {
-            message = message + protocolSeparator;
+    @Override
+    public void log(String message) {
+        logger.log(testNameLog, clientOrServer, message);
+    }
+
+    @Override
+    public RandomGenerator getRandom() {
+        return random;
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, testNameLog + "-" + clientOrServer + "-scheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
         }
+        return scheduler;
+    }
+
+    @Override
+    public int getSessionId() {
+        return sessionId;
+    }
 
-        // Choose a special character fom the config list
-        int randomSpecialCharIndex = (int)(Math.random() * (specialCharacters.length - 1));
+    @Override
+    public Feedback getFeedback() {
+        return feedback;
+    }
 
-        logger.log(testNameLog, clientOrServer,
-                "Adding special character " + specialCharacters[randomSpecialCharIndex] +
-                        " to message " + message);
-        return message + specialCharacters[randomSpecialCharIndex];
+    @Override
+    public Seeds getSeeds() {
+        return corpus;
     }
 }
@@ -3,34 +3,68 @@ package com;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Runs the JAR file of the game.
+ * A game server can also be launched before its test (see GamePool) and attached to the test later.
  */
-public class RunGame extends Thread {
+public class RunGame implements Runnable {
+    private static final long STOP_TIMEOUT = 2000;
+    // Pause of the output after which a stack trace is complete
+    private static final long TRACE_PAUSE = 50;
+    private static final long TRACE_POLL = 5;
+    // Pause before a JAR is launched for a test, e.g. to give the game server a head start
+    private static final long LAUNCH_DELAY = 500;
+    private static final long LISTEN_POLL = 20;
+    // Lines kept until a warm game server is attached to a test
+    private static final int MAX_PENDING = 1000;
+
     private final boolean isClient;
     private final String clientOrServer;
     private final String gameName;
     private final int serverPort;
     private final int clientPort;
     private final String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
-    private final Logger logger;
-    private final String testName;
+    // Logger and test of the process, null for a warm game server not yet attached to a test
+    private Logger logger;
+    private String testName;
+    private final Deque<PendingLine> pending = new ArrayDeque<>();
+    private long launchDelay = LAUNCH_DELAY;
+    private TestMonitor monitor = new TestMonitor();
+    // Searches the output for crashes, null if not enabled
+    private CrashDetector detector;
+    private boolean virtualThreads;
+    private Thread thread;
+    private volatile Process process;
+    private volatile boolean cancelled;
 
     public RunGame(boolean isClient, String gameName, int serverPort, int clientPort, Logger logger, String testName) {
+        this(isClient, gameName, serverPort, clientPort, logger, testName, 0);
+    }
+
+    /**
+     * @param instance Number of the game client if a test launches several clients (0 for a single one)
+     */
+    public RunGame(boolean isClient, String gameName, int serverPort, int clientPort, Logger logger, String testName,
+                   int instance) {
         this.isClient = isClient;
         this.gameName = gameName;
         this.serverPort = serverPort;
         this.clientPort = clientPort;
         this.logger = logger;
         if (isClient) {
-            this.clientOrServer = "GameClient";
+            this.clientOrServer = instance > 0 ? "GameClient#" + instance : "GameClient";
         } else {
             this.clientOrServer = "GameServer";
         }
-        this.testName = "Test_" + testName;
-
+        this.testName = testName == null ? null : "Test_" + testName;
     }
 
     @Override
@@ -58,7 +92,7 @@ public class RunGame extends Thread {
                 command = new String[]{"java", "-jar", gameName, "server", String.valueOf(serverPort)};
             }
         } else {
-            logger.log(testName, "Error", "Command not configured for this OS.");
+            log("Error", "Command not configured for this OS.");
         }
 
         /* Adapted from https://stackoverflow.com/a/25735681. */
@@ -66,43 +100,251 @@ public class RunGame extends Thread {
         pb.redirectErrorStream(true);
         Process p = null;
         try {
-            Thread.sleep(500);
-            logger.log(testName, clientOrServer, "Launching JAR.");
+            Thread.sleep(launchDelay);
+            log(clientOrServer, "Launching JAR.");
             p = pb.start();
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        if (p == null) {
+            monitor.signal(clientOrServer + " could not be launched.");
+            return;
+        }
+        process = p;
+        if (cancelled) {
+            // Cancelled while the process was launched
+            p.destroy();
+        }
+        // An exit is reported once all output of the process has been read
+        CompletableFuture<Void> drained = new CompletableFuture<>();
+        CompletableFuture<Void> reported = p.onExit().thenAcceptBoth(drained, (exited, read) -> exited(exited.exitValue()));
 
-        String line = "";
+        pump(new BufferedReader(new InputStreamReader(p.getInputStream())));
+        drained.complete(null);
 
-        // Check whether the thread has been interrupted
-        while (!interrupted()) {
-            try {
-                // Checking reader.ready() is necessary because otherwise the thread would be stuck
-                // at reader.readLine() and could not be interrupted.
-                if (reader.ready()) {
-                    line = reader.readLine();
-
-                    if (line != null) {
-                        logger.log(testName, clientOrServer, line);
-                    }
+        stopProcess(p);
+        try {
+            reported.get(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            //e.printStackTrace();
+        }
+        log(clientOrServer, "JAR process stopped.");
+    }
+
+    /**
+     * Copies the process output into the log and passes it to the crash detector.
+     * The blocking read returns at the end of the output, i.e. when the process exits or is destroyed by cancel().
+     */
+    private void pump(BufferedReader reader) {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output(line);
+                // A stack trace is printed at once, it is complete when the output pauses
+                if (isTraceOpen() && !awaitOutput(reader)) {
+                    flushTrace();
                 }
-                sleep(100); // Sleeping to give the CPU some time to relax.
-            } catch (IOException | InterruptedException e) {
-                //e.printStackTrace();
-                break;
             }
+        } catch (IOException e) {
+            //e.printStackTrace();
+        }
+        flushTrace();
+    }
+
+    /**
+     * Logs a line of the process output and passes it to the crash detector.
+     * Before a warm game server is attached to a test, the line is kept for the test.
+     */
+    private synchronized void output(String line) {
+        if (logger == null) {
+            keep(new PendingLine(clientOrServer, line, true));
+            return;
+        }
+        logger.log(testName, clientOrServer, line);
+        if (detector != null) {
+            detector.accept(line);
+        }
+    }
+
+    /**
+     * Logs a message about the process.
+     */
+    private synchronized void log(String category, String message) {
+        if (logger == null) {
+            keep(new PendingLine(category, message, false));
+            return;
+        }
+        logger.log(testName, category, message);
+    }
+
+    private void keep(PendingLine line) {
+        if (pending.size() == MAX_PENDING) {
+            pending.poll();
+        }
+        pending.add(line);
+    }
+
+    private synchronized boolean isTraceOpen() {
+        return detector != null && detector.isTraceOpen();
+    }
+
+    private synchronized void flushTrace() {
+        if (detector != null) {
+            detector.flush();
+        }
+    }
+
+    /**
+     * @return true if more output arrives within TRACE_PAUSE ms
+     */
+    private static boolean awaitOutput(BufferedReader reader) throws IOException {
+        for (long waited = 0; !reader.ready(); waited += TRACE_POLL) {
+            if (waited >= TRACE_PAUSE) {
+                return false;
+            }
+            try {
+                Thread.sleep(TRACE_POLL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when the process has exited and its output has been read.
+     * An exit before the end of the test ends it, for the game server or a failing game client it is a finding.
+     */
+    private void exited(int exitCode) {
+        if (cancelled) {
+            return;
+        }
+        log(clientOrServer, "JAR process exited with code " + exitCode + ".");
+        TestMonitor exitMonitor;
+        synchronized (this) {
+            if (detector != null && (!isClient || exitCode != 0)) {
+                detector.exited(exitCode);
+            }
+            exitMonitor = monitor;
         }
+        exitMonitor.signal(clientOrServer + " exited with code " + exitCode + ".");
+    }
 
+    /**
+     * Destroys the process and waits until it has exited, so that its ports are freed.
+     */
+    private void stopProcess(Process p) {
         p.destroy();
-        logger.log(testName, clientOrServer, "JAR process stopped.");
+        try {
+            if (!p.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                p.destroyForcibly().waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            p.destroyForcibly();
+        }
+    }
+
+    synchronized void setMonitor(TestMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @param findings Findings of the test, the process output is searched for crashes
+     */
+    synchronized void setFindings(Findings findings) {
+        this.detector = new CrashDetector(clientOrServer, isClient, findings);
+    }
+
+    /**
+     * @param launchDelay Pause in ms before the JAR is launched (default 500)
+     */
+    void setLaunchDelay(long launchDelay) {
+        this.launchDelay = launchDelay;
+    }
+
+    /**
+     * Hands a warm game server (created without logger) to a test.
+     * The output read so far is written to the log of the test and searched for crashes.
+     */
+    synchronized void attach(Logger logger, String testName, TestMonitor monitor, Findings findings) {
+        this.logger = logger;
+        this.testName = "Test_" + testName;
+        this.monitor = monitor;
+        setFindings(findings);
+        for (PendingLine line : pending) {
+            logger.log(this.testName, line.category(), line.text());
+            if (line.output()) {
+                detector.accept(line.text());
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Waits until the game server listens on its port.
+     * @param timeout Timeout in ms
+     * @return true if the port is in use, false if the process has exited or the timeout has passed first
+     */
+    boolean awaitListening(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (PortAllocator.isFree(serverPort)) {
+            Process p = process;
+            if (System.currentTimeMillis() >= deadline || cancelled || (p != null && !p.isAlive())) {
+                return false;
+            }
+            Thread.sleep(LISTEN_POLL);
+        }
+        return true;
+    }
+
+    /**
+     * @return false once the process has exited or the launch has failed
+     */
+    boolean isAlive() {
+        Process p = process;
+        return !cancelled && (p == null ? thread.isAlive() : p.isAlive());
+    }
+
+    int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * @param virtualThreads If true, the process output is read by a virtual thread.
+     */
+    void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Starts the thread launching the JAR and reading its output.
+     */
+    public void start() {
+        String name = testName != null ? testName : "warm-" + serverPort;
+        thread = Threads.start("RunGame-" + name + "-" + clientOrServer, this, virtualThreads);
+    }
+
+    public void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    /**
+     * A line of the output or a message about the process, kept until the process is attached to a test.
+     */
+    private record PendingLine(String category, String text, boolean output) {
     }
 
     /**
      * Calls interrupt() and stops the thread, shutting down the JAR process.
      */
     public void cancel() {
-        interrupt();
+        cancelled = true;
+        thread.interrupt();
+        Process p = process;
+        if (p != null) {
+            // Ends the blocking read of the process output
+            p.destroy();
+        }
     }
 }
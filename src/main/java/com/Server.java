@@ -5,120 +5,209 @@ import com.test.Test;
 import com.test.TestToolConfig;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  *  Server class with main method.
  */
 public class Server {
+    private static final String BATCH_RESULTS = "batch-results.csv";
+    // Clients waiting to be accepted, e.g. when many synthetic clients connect at once
+    private static final int BACKLOG = 1024;
+
     ServerSocket serverSocket;
+    ServerSocketChannel serverChannel;
     Logger logger;
 
     public Server(int port, Logger logger, String testName) throws IOException {
+        this(port, logger, testName, false);
+    }
+
+    /**
+     * @param useChannel If true, the client sockets are backed by SocketChannels (required by the NIO relay).
+     */
+    public Server(int port, Logger logger, String testName, boolean useChannel) throws IOException {
         logger.log(testName, "General", "Waiting for client to connect.");
-        serverSocket = new ServerSocket(port);
+        if (useChannel) {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+            serverSocket = serverChannel.socket();
+        } else {
+            serverSocket = new ServerSocket(port, BACKLOG);
+        }
         //System.out.println(serverSocket.getInetAddress());
         this.serverSocket.setSoTimeout(0);
     }
 
     public Socket accept() throws IOException {
+        if (serverChannel != null) {
+            return serverChannel.accept().socket();
+        }
+        return serverSocket.accept();
+    }
+
+    /**
+     * Waits for a client for at most timeout ms.
+     * Sockets accepted from a channel keep their SocketChannel.
+     * @throws java.net.SocketTimeoutException if no client connected in time
+     */
+    public Socket accept(int timeout) throws IOException {
+        serverSocket.setSoTimeout(timeout);
         return serverSocket.accept();
     }
 
+    /**
+     * @return Port the clients connect to, e.g. when the server was bound to port 0
+     */
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
 
         // Checking main arguments
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Invalid arguments. Please use the following syntax:");
             System.out.println("java -jar <network-fuzzing-tool.jar> <game.jar> <gameConfig.jar>");
+            System.out.println("Batch mode: java -jar <network-fuzzing-tool.jar> "
+                    + "(<directory> | <jars.txt> | <game1.jar> <game2.jar> ...) <gameConfig.jar>");
             return;
         }
 
         // Check whether files exist
-        File game = new File(args[0]);
-        File config = new File(args[1]);
-
-        if (!game.exists()) {
-            System.out.println("Cannot find game file " + args[0]);
-            return;
-        }
+        File config = new File(args[args.length - 1]);
         if (!config.exists()) {
-            System.out.println("Cannot find config file " + args[1]);
+            System.out.println("Cannot find config file " + args[args.length - 1]);
             return;
         }
 
-        String gameName = args[0];
-
-        // Read config data
-        TestToolConfig configTest = Config.getTestConfig(args[1]);
-        int gameServerPort = configTest.getGameServerPort();
-        int gameClientPort = configTest.getTestToolPort();
-        List<Test> tests = configTest.getTests();
-
-        Logger logger = new Logger(gameName, configTest.isPrintLog(), configTest.isLogModeCSV());
-
-        // Loop over all the configured tests
-        for (Test test : tests) {
-            String testName = test.getTestName();
-            String testNameLog = test.getTestNameLog();
-
-            // Skipping disabled tests.
-            if (!test.isEnabled()) {
-                continue;
+        List<String> games = resolveGames(Arrays.copyOf(args, args.length - 1));
+        for (String gameName : games) {
+            if (!new File(gameName).exists()) {
+                System.out.println("Cannot find game file " + gameName);
+                return;
             }
+        }
+        if (games.isEmpty()) {
+            System.out.println("No game files found in " + args[0]);
+            return;
+        }
+        boolean batchMode = games.size() > 1 || new File(args[0]).isDirectory() || args[0].endsWith(".txt");
 
-            int testDuration = test.getDuration() * 1000;
-            Server server = new Server(gameClientPort, logger, testNameLog);
-
-            // Starting JAR processes
-            RunGame serverJAR = new RunGame(false, gameName, gameServerPort,
-                                            gameClientPort, logger, testName);
-            RunGame clientJAR = new RunGame(true, gameName, gameServerPort,
-                                            gameClientPort, logger, testName);
-            serverJAR.start();
-            clientJAR.start();
-
-            logger.log(testNameLog, "Client", "Waiting for client connection.");
-            Socket socket = server.accept();
-            Connection connection = new Connection(socket, server, gameServerPort, logger, test, configTest);
-            logger.log(testNameLog, "Client", "Client connected.");
-            logger.log(testNameLog, "General", "Started.");
-
+        // Read config data
+        TestToolConfig configTest = Config.getTestConfig(config.getPath());
+        if (configTest == null) {
+            return;
+        }
+        Iterable<Test> tests = configTest.getTests();
+        Corpus corpus = null;
+        if (configTest.getCorpus() != null) {
             try {
-                connection.socket = socket;
-                connection.start();
-            } catch (Exception e) {
-                System.out.println("Client error: " + e.getMessage());
+                corpus = Corpus.open(Paths.get(configTest.getCorpus()));
+            } catch (IOException e) {
+                System.out.println("Cannot open corpus " + configTest.getCorpus() + ": " + e.getMessage());
+                return;
             }
+            System.out.println("Corpus " + configTest.getCorpus() + ": " + corpus.size() + " messages, "
+                    + corpus.anomalies() + " anomaly inputs.");
+        }
+        TestScheduler scheduler = new TestScheduler(configTest);
+        scheduler.setCorpus(corpus);
+        MetricsServer metricsServer = configTest.getMetricsPort() > 0 ? new MetricsServer(configTest.getMetricsPort()) : null;
+        Map<String, Logger> loggers = new LinkedHashMap<>();
+
+        // Plan all tests first, so that warm game servers can be launched ahead of them
+        for (String gameName : games) {
+            for (Test test : tests) {
+                if (test.isEnabled()) {
+                    scheduler.plan(gameName);
+                }
+            }
+        }
 
-            // Wait for the test to finish
-            Thread.sleep(testDuration);
-            logger.log(testNameLog, "General", "Test duration passed.");
-
-            // Stop socket threads
-            connection.cancel();
-            logger.log(testNameLog, "General", "Sockets closed.");
+        // Loop over all games and the configured tests
+        for (String gameName : games) {
+            Logger logger = new Logger(gameName, configTest.isPrintLog(), configTest.isLogModeCSV(),
+                                       configTest.getLogQueueSize(), configTest.isLogDropWhenFull());
+            loggers.put(gameName, logger);
+
+            for (Test test : tests) {
+                // Skipping disabled tests.
+                if (!test.isEnabled()) {
+                    continue;
+                }
+                scheduler.submit(gameName, test, logger);
+            }
+        }
+        List<TestResult> results = scheduler.awaitAll();
+        scheduler.shutdown();
+        if (corpus != null) {
+            corpus.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        for (Logger logger : loggers.values()) {
+            logger.close();
+        }
 
-            // Stop JAR processes
-            clientJAR.cancel();
-            serverJAR.cancel();
+        if (batchMode) {
+            for (String gameName : games) {
+                List<TestResult> gameResults = new ArrayList<>();
+                for (TestResult result : results) {
+                    if (result.getGameName().equals(gameName)) {
+                        gameResults.add(result);
+                    }
+                }
+                BatchReport.writeSummary(gameName, gameResults);
+            }
+            BatchReport.writeAggregate(Paths.get(BATCH_RESULTS), results);
+            System.out.println("Batch results written to " + BATCH_RESULTS);
+        }
+    }
 
-            Thread.sleep(2000);
+    /**
+     * Resolves the game arguments: a directory (all JARs in it), a .txt file listing one JAR per line,
+     * or one or more JAR files.
+     */
+    static List<String> resolveGames(String[] args) throws IOException {
+        List<String> games = new ArrayList<>();
+        for (String arg : args) {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] jars = file.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".jar"));
+                if (jars != null) {
+                    Arrays.sort(jars);
+                    for (File jar : jars) {
+                        games.add(jar.getPath());
+                    }
+                }
+            } else if (arg.endsWith(".txt")) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.isBlank() && !line.startsWith("#")) {
+                        games.add(line.trim());
+                    }
+                }
+            } else {
+                games.add(arg);
+            }
         }
+        return games;
     }
 }
-
-
-
-
-
-
-
-
-
-
-
-
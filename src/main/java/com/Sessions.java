@@ -0,0 +1,189 @@
+package com;
+
+import com.mutator.Feedback;
+import com.test.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  All client sessions of a test. Every connected game client is relayed by its own Connection
+ *  (upstream socket and relay threads), the terminal conditions of the test are checked over all of them.
+ */
+public class Sessions {
+    private final Test test;
+    private final TestMonitor monitor;
+    private final int expectedClients;
+    private final List<Connection> connections = new ArrayList<>();
+    private int sessionIds;
+    private int closedSessions;
+    private Capture capture;
+    private Corpus corpus;
+    private Metrics metrics;
+    private ResponseTimes responseTimes;
+    private Feedback feedback = new Feedback();
+    private long seed = ThreadLocalRandom.current().nextLong();
+
+    private final AtomicLong relayedMessages = new AtomicLong();
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param test Test run by the sessions
+     * @param monitor Monitor ending the test
+     * @param expectedClients Number of game clients launched for the test
+     */
+    public Sessions(Test test, TestMonitor monitor, int expectedClients) {
+        this.test = test;
+        this.monitor = monitor;
+        this.expectedClients = expectedClients;
+        this.metrics = new Metrics(null, test.getTestName());
+    }
+
+    /**
+     * Reserves the id of a new session, its connection is added once it is constructed.
+     * @return Session id, starting at 1
+     */
+    synchronized int newSessionId() {
+        return ++sessionIds;
+    }
+
+    /**
+     * Adds the connection of a session.
+     */
+    synchronized void add(Connection connection) {
+        connections.add(connection);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Log name of a session: the test name, tagged with the session id if the test can have several sessions.
+     * @param id Session id
+     */
+    String logName(int id) {
+        if (expectedClients > 1 || id > 1) {
+            return test.getTestNameLog() + "#" + id;
+        }
+        return test.getTestNameLog();
+    }
+
+    /**
+     * Called for every received message, ends the test once maxMessages have been relayed over all sessions.
+     */
+    void messageRelayed() {
+        lastActivity = System.currentTimeMillis();
+        long relayed = relayedMessages.incrementAndGet();
+        if (relayed == test.getMaxMessages()) {
+            monitor.signal(relayed + " messages relayed.");
+        }
+    }
+
+    /**
+     * Called when the relay of a session has stopped.
+     * Ends the test once all launched clients have connected and all sessions are closed.
+     */
+    synchronized void sessionClosed() {
+        closedSessions++;
+        if (closedSessions >= expectedClients && closedSessions == connections.size()) {
+            monitor.signal("Sockets closed.");
+        }
+    }
+
+    /**
+     * @param seed Seed of the test, each session and direction derives its own random numbers from it
+     */
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param capture Capture file the sessions record their messages to
+     */
+    void setCapture(Capture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @return Capture file, or null if the messages are not captured
+     */
+    Capture getCapture() {
+        return capture;
+    }
+
+    /**
+     * @param corpus Corpus the sessions add their messages to
+     */
+    void setCorpus(Corpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * @return Corpus, or null if the messages are not kept
+     */
+    Corpus getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * @param metrics Metrics the sessions are counted in
+     */
+    void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param responseTimes Oracle measuring the reaction times of the game server in all sessions
+     */
+    void setResponseTimes(ResponseTimes responseTimes) {
+        this.responseTimes = responseTimes;
+    }
+
+    ResponseTimes getResponseTimes() {
+        return responseTimes;
+    }
+
+    /**
+     * @param feedback Behavior of the game observed by all sessions
+     */
+    void setFeedback(Feedback feedback) {
+        this.feedback = feedback;
+    }
+
+    Feedback getFeedback() {
+        return feedback;
+    }
+
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    long getRelayedMessages() {
+        return relayedMessages.get();
+    }
+
+    /**
+     * Cancels all sessions.
+     */
+    void cancel() {
+        List<Connection> open;
+        synchronized (this) {
+            open = new ArrayList<>(connections);
+        }
+        for (Connection connection : open) {
+            connection.cancel();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  Shaped relay direction of the polling relay: messages are handed to a delivery thread that writes
+ *  them at the arrival times of the Shaper, in the order they were sent.
+ *  The relay thread of the direction keeps reading in the meantime.
+ */
+class ShapedLink {
+    private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+
+    // A line, or bytes without line separator if data is null
+    private record Pending(long arrival, String data, ByteBuffer bytes) {
+    }
+
+    private final Shaper shaper;
+    private final PrintWriter out;
+    private final OutputStream rawOut;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    /**
+     * @param out Writer of the socket the messages are delivered to
+     * @param rawOut Stream below the writer, for bytes without line separator
+     * @param name Name of the delivery thread
+     */
+    ShapedLink(Shaper shaper, PrintWriter out, OutputStream rawOut, String name, boolean virtualThreads) {
+        this.shaper = shaper;
+        this.out = out;
+        this.rawOut = rawOut;
+        this.thread = Threads.start(name, this::deliver, virtualThreads);
+    }
+
+    /**
+     * Sends a message over the link. Can be called from any thread.
+     * @return System.nanoTime() at which the message is written
+     */
+    long send(String data) {
+        // Arrival times and queue order must match
+        synchronized (this) {
+            long arrival = shaper.arrival(Metrics.utf8Length(data) + LINE_SEPARATOR_LENGTH, System.nanoTime());
+            queue.add(new Pending(arrival, data, null));
+            return arrival;
+        }
+    }
+
+    /**
+     * Sends bytes without line separator over the link, written with a write of their own.
+     * @param bytes Bytes from its position to its limit, backed by an array that is not changed afterwards
+     */
+    void send(ByteBuffer bytes) {
+        synchronized (this) {
+            long arrival = shaper.arrival(bytes.remaining(), System.nanoTime());
+            queue.add(new Pending(arrival, null, bytes));
+        }
+    }
+
+    private void deliver() {
+        try {
+            while (true) {
+                Pending pending = queue.take();
+                long wait;
+                while ((wait = pending.arrival() - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                }
+                if (pending.data() != null) {
+                    out.println(pending.data());
+                } else {
+                    ByteBuffer bytes = pending.bytes();
+                    out.flush();
+                    rawOut.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                    rawOut.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Cancelled
+        } catch (IOException e) {
+            // Socket closed at the end of the test
+        }
+    }
+
+    /**
+     * Stops the delivery thread.
+     * @return Number of messages that have not arrived
+     */
+    int cancel() {
+        thread.interrupt();
+        return queue.size();
+    }
+}
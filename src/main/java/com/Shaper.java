@@ -0,0 +1,106 @@
+package com;
+
+import com.test.Shaping;
+
+import java.util.random.RandomGenerator;
+
+/**
+ *  Simulates the link of a relay direction for the bytes sent over it.
+ *  A token bucket limits the bandwidth: it holds up to burst bytes and is refilled at bandwidth bytes/s,
+ *  bytes wait until enough tokens are available. Every segment of the bytes is lost with the configured
+ *  probability; as the relay speaks TCP, a loss delays the segment (and everything behind it) by a
+ *  retransmission timeout that doubles for every further loss. The latency is drawn from the configured
+ *  distribution, and the bytes arrive in the order they were sent.
+ *  Each direction has its own Shaper, so a slow direction never holds up the other one.
+ */
+class Shaper {
+    // Minimum retransmission timeout of TCP (Linux)
+    private static final long MIN_RTO = 200_000_000L;
+    // Retransmissions of a segment after which the backoff stops doubling
+    private static final int MAX_BACKOFF = 6;
+
+    private final long bandwidth;
+    private final double burst;
+    private final double loss;
+    private final int latency;
+    private final int jitter;
+    private final Distribution distribution;
+    private final RandomGenerator random;
+    private final long rto;
+
+    // Tokens (bytes) at lastRefill, negative while bytes wait for the link
+    private double tokens;
+    private long lastRefill;
+    private long lastArrival;
+
+    // Statistics for the summary
+    private long messages;
+    private long bytes;
+    private long retransmissions;
+    private long totalDelay;
+    private long maxDelay;
+
+    /**
+     * @throws IllegalArgumentException if the distribution is unknown
+     */
+    Shaper(Shaping shaping, RandomGenerator random) {
+        this.bandwidth = shaping.getBandwidth();
+        this.burst = shaping.getBurst();
+        this.loss = shaping.getLoss();
+        this.latency = shaping.getLatency();
+        this.jitter = shaping.getJitter();
+        this.distribution = Distribution.parse(shaping.getDistribution());
+        this.random = random;
+        // RTO estimate of TCP (SRTT + 4 RTTVAR) for a round trip over two such links
+        this.rto = Math.max(MIN_RTO, (2L * latency + 4L * jitter) * 1_000_000);
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Sends bytes over the link.
+     * @param length Number of bytes
+     * @param now System.nanoTime() when the bytes are sent
+     * @return System.nanoTime() when the bytes arrive, never before the bytes sent earlier
+     */
+    synchronized long arrival(int length, long now) {
+        long departure = now;
+        if (bandwidth > 0) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * (double) bandwidth / 1e9);
+            lastRefill = now;
+            tokens -= length;
+            if (tokens < 0) {
+                departure = now + (long) (-tokens * 1e9 / bandwidth);
+            }
+        }
+
+        long lost = 0;
+        if (loss > 0) {
+            int segments = Math.max(1, (length + Shaping.SEGMENT_SIZE - 1) / Shaping.SEGMENT_SIZE);
+            for (int i = 0; i < segments; i++) {
+                for (int attempt = 0; random.nextDouble() < loss; attempt++) {
+                    lost += rto << Math.min(attempt, MAX_BACKOFF);
+                    retransmissions++;
+                }
+            }
+        }
+
+        long delay = (long) (distribution.sample(latency, jitter, random) * 1_000_000);
+        long arrival = Math.max(departure + lost + delay, lastArrival);
+        lastArrival = arrival;
+
+        messages++;
+        bytes += length;
+        totalDelay += arrival - now;
+        maxDelay = Math.max(maxDelay, arrival - now);
+        return arrival;
+    }
+
+    /**
+     * @return Summary logged at the end of the test
+     */
+    synchronized String summary() {
+        return messages + " writes, " + bytes + " bytes, " + retransmissions + " retransmitted segments, delay mean "
+                + (messages > 0 ? totalDelay / messages / 1_000_000 : 0) + " ms, max " + maxDelay / 1_000_000 + " ms.";
+    }
+}
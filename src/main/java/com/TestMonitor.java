@@ -0,0 +1,59 @@
+package com;
+
+/**
+ *  Collects the conditions that end a test before its duration has passed,
+ *  e.g. closed sockets or a game process that exited. The first reason wins.
+ */
+public class TestMonitor {
+    private String reason;
+
+    /**
+     * Ends the test, unless it has already been ended for another reason.
+     * @param reason Reason logged and reported in the test result
+     */
+    public synchronized void signal(String reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a terminal condition is signalled or the timeout has passed.
+     * @param timeout Timeout in ms
+     * @return Reason, or null if the timeout has passed first
+     */
+    public synchronized String await(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (reason == null && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return reason;
+    }
+
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    /**
+     * Creates a monitor that only ends this test once it has been signalled the given number of times,
+     * e.g. when all launched game clients have exited.
+     * @param signals Number of signals
+     * @return Monitor forwarding the last signal to this monitor
+     */
+    public TestMonitor countdown(int signals) {
+        TestMonitor parent = this;
+        return new TestMonitor() {
+            private int remaining = signals;
+
+            @Override
+            public synchronized void signal(String reason) {
+                if (--remaining == 0) {
+                    parent.signal(reason);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package com;
+
+/**
+ *  Outcome of a single test, used for the batch summaries.
+ */
+public class TestResult {
+    private final String gameName;
+    private final String testName;
+    private final long startTime;
+    private long duration;
+    private boolean failed;
+    private long messages;
+    // Time until the game server listened on its port, -1 if unknown
+    private long startup = -1;
+    private boolean warmStart;
+    private String message = "";
+
+    public TestResult(String gameName, String testName) {
+        this.gameName = gameName;
+        this.testName = testName;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the test as finished and records its duration.
+     */
+    public void finish() {
+        duration = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Marks the test as failed, e.g. if the game could not be started.
+     */
+    public void fail(String message) {
+        this.failed = true;
+        this.message = message;
+        finish();
+    }
+
+    public String getGameName() {
+        return gameName;
+    }
+
+    public String getTestName() {
+        return testName;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * @param startup Time in ms from the start of the test until the game server listened on its port
+     * @param warmStart true if the game server was launched ahead of the test
+     */
+    public void setStartup(long startup, boolean warmStart) {
+        this.startup = startup;
+        this.warmStart = warmStart;
+    }
+
+    public long getStartup() {
+        return startup;
+    }
+
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+
+    public static String csvHeader() {
+        return "game;test;status;durationMs;startupMs;start;messages;message";
+    }
+
+    public String toCsv() {
+        return gameName + ";" + testName + ";" + (failed ? "failed" : "completed") + ";" + duration + ";"
+                + startup + ";" + (warmStart ? "warm" : "cold") + ";"
+                + messages + ";" + message.replace(';', ',').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,346 @@
+package com;
+
+import com.mutator.Feedback;
+import com.test.Test;
+import com.test.TestToolConfig;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *  Runs a single test: starts the game JARs, relays the connection until the test ends
+ *  and stops everything again.
+ */
+public class TestRunner {
+    private static final int CHECK_INTERVAL = 500;
+    private static final long STOP_TIMEOUT = 5000;
+    // Time the game server is given to listen on its port
+    private static final long STARTUP_TIMEOUT = 10000;
+
+    private final String gameName;
+    private final Test test;
+    private final TestToolConfig configTest;
+    private final Logger logger;
+    private final int gameServerPort;
+    private final int gameClientPort;
+    // Warm game servers, null if every test launches its own
+    private GamePool gamePool;
+    // Corpus shared by all tests, null if the messages are not kept
+    private Corpus corpus;
+
+    public TestRunner(String gameName, Test test, TestToolConfig configTest, Logger logger,
+                      int gameServerPort, int gameClientPort) {
+        this.gameName = gameName;
+        this.test = test;
+        this.configTest = configTest;
+        this.logger = logger;
+        this.gameServerPort = gameServerPort;
+        this.gameClientPort = gameClientPort;
+    }
+
+    /**
+     * @param gamePool Pool the test takes a warm game server from
+     */
+    public void setGamePool(GamePool gamePool) {
+        this.gamePool = gamePool;
+    }
+
+    /**
+     * @param corpus Corpus the sessions add the relayed messages and anomaly inputs to
+     */
+    public void setCorpus(Corpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Runs the test until its duration has passed or a terminal condition is reached:
+     * all sockets closed, a game process exited, maxMessages relayed or idleTimeout without messages.
+     * Every client connecting during the test gets its own session.
+     * In load mode, synthetic clients replace the game client JAR.
+     * @return Result of the test
+     */
+    public TestResult execute() throws IOException, InterruptedException {
+        TestResult result = new TestResult(gameName, test.getTestName());
+        String testName = test.getTestName();
+        String testNameLog = test.getTestNameLog();
+        boolean loadMode = test.getLoadClients() > 0;
+        int clients = loadMode ? test.getLoadClients() : test.getClients();
+
+        long deadline = System.currentTimeMillis() + test.getDuration() * 1000L;
+        TestMonitor monitor = new TestMonitor();
+        Server server = new Server(gameClientPort, logger, testNameLog, configTest.isNioRelay());
+        Sessions sessions = new Sessions(test, monitor, clients);
+        Capture capture = configTest.isCapture() ? new Capture(gameName, testName) : null;
+        sessions.setCapture(capture);
+        sessions.setCorpus(corpus);
+        int corpusSize = corpus != null ? corpus.size() : 0;
+        int corpusAnomalies = corpus != null ? corpus.anomalies() : 0;
+        Metrics metrics = new Metrics(gameName, testName);
+        sessions.setMetrics(metrics);
+        metrics.register();
+        ResponseTimes responseTimes = new ResponseTimes(configTest);
+        sessions.setResponseTimes(responseTimes);
+        Feedback feedback = sessions.getFeedback();
+        responseTimes.setFeedback(feedback);
+        long seed = seed();
+        sessions.setSeed(seed);
+        logger.log(testNameLog, "General", "Seed: " + seed);
+        Findings findings = new Findings(gameName, testName, testNameLog, seed, logger, monitor,
+                configTest.isStopOnCrash(), configTest.getCrashPatterns());
+        findings.setFeedback(feedback);
+
+        // Starting JAR processes, the test only ends when all clients have exited
+        long startupStart = System.nanoTime();
+        RunGame serverJAR = gamePool != null ? gamePool.take(gameName) : null;
+        boolean warm = serverJAR != null;
+        if (warm) {
+            serverJAR.attach(logger, testName, monitor, findings);
+            logger.log(testNameLog, "General", "Using warm game server on port " + serverJAR.getServerPort() + ".");
+        } else {
+            serverJAR = new RunGame(false, gameName, gameServerPort, gameClientPort, logger, testName);
+            serverJAR.setMonitor(monitor);
+            serverJAR.setFindings(findings);
+            serverJAR.setVirtualThreads(configTest.isVirtualThreads());
+            serverJAR.start();
+        }
+        int serverPort = serverJAR.getServerPort();
+        TestMonitor clientMonitor = monitor.countdown(clients);
+        List<RunGame> clientJARs = new ArrayList<>();
+        for (int i = 1; i <= clients && !loadMode; i++) {
+            RunGame clientJAR = new RunGame(true, gameName, serverPort,
+                                            gameClientPort, logger, testName, clients > 1 ? i : 0);
+            if (warm) {
+                // The game server is already up
+                clientJAR.setLaunchDelay(0);
+            }
+            clientJAR.setMonitor(clientMonitor);
+            clientJAR.setFindings(findings);
+            clientJAR.setVirtualThreads(configTest.isVirtualThreads());
+            clientJAR.start();
+            clientJARs.add(clientJAR);
+        }
+
+        logger.log(testNameLog, "Client", "Waiting for client connection.");
+        Thread acceptor = Threads.start(testNameLog + "-acceptor",
+                () -> acceptClients(server, sessions, serverPort), configTest.isVirtualThreads());
+        LoadGenerator load = null;
+        if (loadMode) {
+            logger.log(testNameLog, "Load", "Starting " + clients + " synthetic clients, "
+                    + test.getLoadRate() + " messages/sec each.");
+            load = new LoadGenerator(gameClientPort, test, configTest);
+            load.start();
+        }
+        reportStartup(serverJAR, warm, startupStart, deadline, testNameLog, result);
+
+        // Wait for the test to finish
+        String reason = awaitEnd(sessions, monitor, deadline);
+        if (load != null) {
+            load.cancel();
+            logger.log(testNameLog, "Load", load.summary());
+        }
+
+        // Stop accepting clients before the sessions are closed
+        server.serverSocket.close();
+        acceptor.join(STOP_TIMEOUT);
+
+        metrics.unregister();
+        if (sessions.size() == 0) {
+            closeCapture(capture, testNameLog);
+            logger.log(testNameLog, "Error", "Client did not connect: " + reason);
+            stopGame(serverJAR, clientJARs, serverPort, testNameLog);
+            result.fail("Client did not connect: " + reason);
+            reportFindings(findings, testNameLog, result);
+            return result;
+        }
+        logger.log(testNameLog, "General", reason);
+        result.setMessage(load != null ? reason + " Load: " + load.summary() : reason);
+        result.setMessages(sessions.getRelayedMessages());
+
+        // Stop socket threads
+        sessions.cancel();
+        closeCapture(capture, testNameLog);
+        logger.log(testNameLog, "Metrics", metrics.summary());
+        logger.log(testNameLog, "Feedback", feedback.summary());
+        reportResponseTimes(responseTimes, testNameLog, result);
+        // Write all log lines of this test before the next test starts
+        logger.flush();
+        logger.log(testNameLog, "General", "Sockets closed.");
+
+        // Stop JAR processes, their output has been searched for crashes once they are stopped
+        stopGame(serverJAR, clientJARs, serverPort, testNameLog);
+        reportFindings(findings, testNameLog, result);
+        reportCorpus(corpusSize, corpusAnomalies, testNameLog);
+        result.finish();
+        return result;
+    }
+
+    /**
+     * @return Seed of the test, the configured one or a new random seed that is logged to reproduce the test
+     */
+    private long seed() {
+        if (test.getSeed() != null) {
+            return test.getSeed();
+        }
+        if (configTest.getSeed() != null) {
+            return configTest.getSeed();
+        }
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Accepts game clients until the server socket is closed and starts a session for each of them.
+     */
+    private void acceptClients(Server server, Sessions sessions, int serverPort) {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // Server socket closed at the end of the test
+                return;
+            }
+            try {
+                Connection connection = new Connection(socket, server, serverPort, logger, test, configTest,
+                                                       sessions);
+                logger.log(connection.getTestNameLog(), "Client", "Client connected.");
+                logger.log(connection.getTestNameLog(), "General", "Started.");
+                connection.start();
+            } catch (Exception e) {
+                System.out.println("Client error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits until a terminal condition is signalled, the sessions have been idle for idleTimeout
+     * or the test duration has passed.
+     * @return Reason why the test ended
+     */
+    private String awaitEnd(Sessions sessions, TestMonitor monitor, long deadline) throws InterruptedException {
+        long idleTimeout = test.getIdleTimeout() * 1000L;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                return "Test duration passed.";
+            }
+            if (idleTimeout > 0 && sessions.size() > 0 && now - sessions.getLastActivity() >= idleTimeout) {
+                return "No messages for " + test.getIdleTimeout() + " sec.";
+            }
+            String reason = monitor.await(Math.min(deadline - now, CHECK_INTERVAL));
+            if (reason != null) {
+                return reason;
+            }
+        }
+    }
+
+    /**
+     * Logs the reaction times of the game server per command and compares them with the Relay test.
+     */
+    private void reportResponseTimes(ResponseTimes responseTimes, String testNameLog, TestResult result) {
+        for (String line : responseTimes.report()) {
+            logger.log(testNameLog, "Response", line);
+        }
+        if (test.getTestName().equals(ResponseTimes.BASELINE_TEST)) {
+            responseTimes.saveBaseline(gameName);
+            return;
+        }
+        if (configTest.getParallelTests() > 1) {
+            // The Relay test may still be running, and the latencies depend on the tests running beside it
+            logger.log(testNameLog, "Response", "No comparison with the " + ResponseTimes.BASELINE_TEST
+                    + " test, the tests run in parallel.");
+            return;
+        }
+        if (!ResponseTimes.hasBaseline(gameName)) {
+            logger.log(testNameLog, "Response", "No " + ResponseTimes.BASELINE_TEST + " test to compare with.");
+            return;
+        }
+        List<String> regressions = responseTimes.regressions(gameName);
+        for (String line : regressions) {
+            logger.log(testNameLog, "Warning", "Slower than " + ResponseTimes.BASELINE_TEST + ": " + line);
+        }
+        if (!regressions.isEmpty()) {
+            result.setMessage(result.getMessage() + " Slower than " + ResponseTimes.BASELINE_TEST + ": "
+                    + String.join(", ", regressions));
+        }
+    }
+
+    /**
+     * Waits until the game server listens on its port and reports the time from the start of the test,
+     * i.e. the startup time of the game server that a warm game server saves.
+     */
+    private void reportStartup(RunGame serverJAR, boolean warm, long startupStart, long deadline, String testNameLog,
+                               TestResult result) throws InterruptedException {
+        long timeout = Math.min(STARTUP_TIMEOUT, deadline - System.currentTimeMillis());
+        if (!serverJAR.awaitListening(timeout)) {
+            logger.log(testNameLog, "Warning", "Game server not listening on port " + serverJAR.getServerPort() + ".");
+            return;
+        }
+        long startup = (System.nanoTime() - startupStart) / 1_000_000;
+        result.setStartup(startup, warm);
+        logger.log(testNameLog, "Startup", "Game server listening after " + startup + " ms (" + (warm ? "warm" : "cold") + ").");
+    }
+
+    /**
+     * Logs the crashes found in the output of the game JARs, adds them to the result and writes the findings file.
+     */
+    private void reportFindings(Findings findings, String testNameLog, TestResult result) {
+        String summary = findings.summary();
+        if (summary == null) {
+            return;
+        }
+        logger.log(testNameLog, "Crash", summary);
+        result.setMessage(result.getMessage() + " Crashes: " + summary);
+        try {
+            logger.log(testNameLog, "Crash", "Findings written to " + findings.write() + ".");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Logs the messages added to the corpus during the test (with parallel tests, also those of the other tests)
+     * and writes them to the file.
+     */
+    private void reportCorpus(int corpusSize, int corpusAnomalies, String testNameLog) {
+        if (corpus == null) {
+            return;
+        }
+        try {
+            corpus.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logger.log(testNameLog, "Corpus", (corpus.size() - corpusSize) + " new messages, "
+                + (corpus.anomalies() - corpusAnomalies) + " new anomaly inputs, " + corpus.size() + " messages in "
+                + corpus.getPath() + ".");
+    }
+
+    private void closeCapture(Capture capture, String testNameLog) throws IOException {
+        if (capture != null) {
+            capture.close();
+            logger.log(testNameLog, "General", capture.getEntries() + " messages captured in " + capture.getFilename() + ".");
+        }
+    }
+
+    /**
+     * Stops the JAR processes and waits until the ports can be used by the next test.
+     */
+    private void stopGame(RunGame serverJAR, List<RunGame> clientJARs, int serverPort, String testNameLog)
+            throws InterruptedException {
+        for (RunGame clientJAR : clientJARs) {
+            clientJAR.cancel();
+        }
+        serverJAR.cancel();
+        for (RunGame clientJAR : clientJARs) {
+            clientJAR.join(STOP_TIMEOUT);
+        }
+        serverJAR.join(STOP_TIMEOUT);
+
+        if (!PortAllocator.awaitFree(STOP_TIMEOUT, serverPort, gameClientPort)) {
+            logger.log(testNameLog, "Warning", "Ports " + serverPort + "/" + gameClientPort + " still in use.");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com;
+
+import com.test.Test;
+import com.test.TestToolConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *  Schedules the configured tests.
+ *  Sequentially (default), all tests use the configured ports and the logfile of their game.
+ *  In parallel, each test gets its own port pair from the configured range and its own logfile,
+ *  and up to parallelTests tests run at the same time. In batch mode, the tests of all games
+ *  share the same worker pool. With warmServers, the tests take their game server from a GamePool.
+ */
+public class TestScheduler {
+    private final TestToolConfig configTest;
+    private final int parallelism;
+    private final ExecutorService pool;
+    private final PortAllocator ports;
+    private final GamePool gamePool;
+    private Corpus corpus;
+    private final List<Future<TestResult>> running = new ArrayList<>();
+    private final List<TestResult> results = new ArrayList<>();
+
+    public TestScheduler(TestToolConfig configTest) {
+        this.configTest = configTest;
+        this.parallelism = configTest.getParallelTests();
+        if (parallelism > 1) {
+            int[] range = configTest.getPortRange();
+            this.ports = new PortAllocator(range[0], range[1]);
+            this.pool = Executors.newFixedThreadPool(parallelism);
+        } else {
+            this.ports = null;
+            this.pool = null;
+        }
+        this.gamePool = configTest.getWarmServers() > 0
+                ? new GamePool(configTest.getWarmServers(), configTest.isVirtualThreads()) : null;
+    }
+
+    /**
+     * @param corpus Corpus shared by all tests, null if the messages are not kept
+     */
+    public void setCorpus(Corpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Announces a test before the tests are submitted, so that its game server can be launched ahead.
+     */
+    public void plan(String gameName) {
+        if (gamePool != null) {
+            gamePool.plan(gameName);
+        }
+    }
+
+    /**
+     * Runs the test, or queues it if tests run in parallel.
+     * @param gameName Game JAR
+     * @param test Test to run
+     * @param logger Logger of the game
+     */
+    public void submit(String gameName, Test test, Logger logger) throws InterruptedException {
+        if (pool == null) {
+            results.add(runSequential(gameName, test, logger));
+            return;
+        }
+        running.add(pool.submit(() -> runIsolated(gameName, test, logger)));
+    }
+
+    private TestResult runSequential(String gameName, Test test, Logger logger) throws InterruptedException {
+        try {
+            TestRunner runner = new TestRunner(gameName, test, configTest, logger,
+                    configTest.getGameServerPort(), configTest.getTestToolPort());
+            runner.setGamePool(gamePool);
+            runner.setCorpus(corpus);
+            return runner.execute();
+        } catch (IOException e) {
+            logger.log(test.getTestNameLog(), "Error", "Test failed: " + e);
+            TestResult result = new TestResult(gameName, test.getTestName());
+            result.fail(e.toString());
+            return result;
+        }
+    }
+
+    private TestResult runIsolated(String gameName, Test test, Logger logger) throws InterruptedException {
+        int[] pair = ports.acquire();
+        String testNameLog = test.getTestNameLog();
+        try {
+            logger.log(testNameLog, "General", "Running on ports " + pair[0] + "/" + pair[1] + ".");
+            Logger testLogger = new Logger(logName(gameName, test), configTest.isPrintLog(),
+                    configTest.isLogModeCSV(), configTest.getLogQueueSize(), configTest.isLogDropWhenFull());
+            TestResult result;
+            try {
+                TestRunner runner = new TestRunner(gameName, test, configTest, testLogger, pair[0], pair[1]);
+                runner.setGamePool(gamePool);
+                runner.setCorpus(corpus);
+                result = runner.execute();
+            } finally {
+                testLogger.close();
+            }
+            logger.log(testNameLog, "General", "Finished.");
+            return result;
+        } catch (IOException e) {
+            logger.log(testNameLog, "Error", "Test failed: " + e);
+            TestResult result = new TestResult(gameName, test.getTestName());
+            result.fail(e.toString());
+            return result;
+        } finally {
+            ports.release(pair);
+        }
+    }
+
+    /**
+     * Waits for all queued tests.
+     * @return Results of all tests submitted so far, in submission order
+     */
+    public List<TestResult> awaitAll() throws InterruptedException {
+        for (Future<TestResult> future : running) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                System.out.println("Test failed: " + e.getCause());
+            }
+        }
+        running.clear();
+        List<TestResult> finished = new ArrayList<>(results);
+        results.clear();
+        return finished;
+    }
+
+    /**
+     * Stops the worker threads and the game servers that are still warm.
+     */
+    public void shutdown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (gamePool != null) {
+            gamePool.shutdown();
+        }
+    }
+
+    /**
+     * @return Name passed to the Logger of a parallel test, e.g. game-Relay.jar for game.jar
+     */
+    private static String logName(String gameName, Test test) {
+        return gameName.substring(0, gameName.length() - 4) + "-" + test.getTestName() + ".jar";
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,22 @@
+package com;
+
+/**
+ *  Starts the relay and process output threads either as platform or as virtual threads.
+ */
+public class Threads {
+
+    /**
+     * @param name Thread name
+     * @param task Task to run
+     * @param virtual If true, a virtual thread is started
+     * @return Started thread
+     */
+    public static Thread start(String name, Runnable task, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(name).start(task);
+        }
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+}
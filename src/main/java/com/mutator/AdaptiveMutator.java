@@ -0,0 +1,425 @@
+package com.mutator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+import java.util.regex.Pattern;
+
+/**
+ *  Adaptive Test: feedback-driven fuzzing in the style of AFL.
+ *  The relayed messages form a queue of seeds, grouped by their command. A share of the messages (test.value,
+ *  default 0.5) is replaced by a mutant of a seed with the same command; seeds and mutation operators are chosen
+ *  in proportion to their energy. Behavior reported to the Feedback of the test shortly after a mutation
+ *  (errors of the game JARs, disconnects, new responses, latency spikes) gives energy to its seed and operator,
+ *  and mutants causing behavior not seen before join the queue as new seeds.
+ *  With a corpus in the config, messages and anomaly inputs kept from earlier runs are added as initial seeds.
+ */
+public class AdaptiveMutator implements Mutator, Feedback.Listener {
+    private static final double DEFAULT_RATE = 0.5;
+    // Behavior observed up to this time after a mutation is attributed to it
+    private static final long ATTRIBUTION_WINDOW = 1_000_000_000L;
+
+    private MutationContext context;
+    private SeedQueue seedQueue;
+    private double rate;
+    // Last mutation of this direction
+    private volatile Attempt last;
+
+    @Override
+    public String getName() {
+        return "Adaptive";
+    }
+
+    @Override
+    public void init(MutationContext context) {
+        this.context = context;
+        this.rate = DEFAULT_RATE;
+        if (context.getTestValue() != null && !context.getTestValue().isBlank()) {
+            try {
+                this.rate = Double.parseDouble(context.getTestValue());
+            } catch (NumberFormatException e) {
+                context.log("Invalid mutation rate " + context.getTestValue() + ", using " + DEFAULT_RATE + ".");
+            }
+        }
+        // One seed queue per direction, shared by all sessions of the test
+        String direction = context.isClient() ? "toClient" : "toServer";
+        this.seedQueue = context.getFeedback().shared(getName() + "-" + direction, () -> {
+            SeedQueue queue = new SeedQueue(context.getProtocolSeparator(), context.getSpecialCharacters());
+            if (context.getSeeds() != null) {
+                int anomalies = queue.seed(context.getSeeds(), context.isClient(), true, context.getRandom());
+                int messages = queue.seed(context.getSeeds(), context.isClient(), false, context.getRandom());
+                context.log("Added " + (anomalies + messages) + " seeds from earlier runs (" + anomalies
+                        + " anomaly inputs).");
+            }
+            return queue;
+        });
+        context.getFeedback().addListener(context.getSessionId(), this);
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) throws IOException {
+        RandomGenerator random = context.getRandom();
+        Seed observed = seedQueue.add(message);
+        if (random.nextDouble() >= rate) {
+            return message;
+        }
+        Seed seed = seedQueue.pick(observed, random);
+        Operator operator = seedQueue.pickOperator(random);
+        if (seed != observed) {
+            context.log("Replacing message " + message + " with seed " + seed.message
+                    + " (energy " + String.format("%.2f", seedQueue.energy(seed)) + ")");
+        }
+        String mutant = operator.apply(seed, context);
+        last = new Attempt(seed, operator, mutant, System.nanoTime());
+        seedQueue.latest = last;
+        return mutant;
+    }
+
+    @Override
+    public void onSignal(Feedback.Signal signal, int session, String detail, boolean first) {
+        // Errors of a game JAR are caused by the messages sent to it
+        if ((signal == Feedback.Signal.SERVER_ERROR && context.isClient())
+                || (signal == Feedback.Signal.CLIENT_ERROR && !context.isClient())) {
+            return;
+        }
+        Attempt attempt = last;
+        if (attempt == null || System.nanoTime() - attempt.time > ATTRIBUTION_WINDOW) {
+            return;
+        }
+        // Signals of unknown sessions go to the latest mutation of the direction in any session
+        if (session == 0 && attempt != seedQueue.latest) {
+            return;
+        }
+        double reward = seedQueue.reward(attempt, signal, first);
+        if (first) {
+            context.log("New behavior " + signal + " (" + detail + ") after " + attempt.operator.name + " of "
+                    + attempt.seed.message + ": " + attempt.mutant + " (reward " + String.format("%.1f", reward) + ")");
+        }
+    }
+
+    /**
+     * A message of the seed queue and its energy.
+     */
+    static class Seed {
+        private final String message;
+        private final String command;
+        private double energy;
+
+        Seed(String message, String command, double energy) {
+            this.message = message;
+            this.command = command;
+            this.energy = energy;
+        }
+    }
+
+    /**
+     * A mutation operator and its score, the operator is chosen with weight 1 + score.
+     */
+    abstract static class Operator {
+        private final String name;
+        private double score;
+
+        Operator(String name) {
+            this.name = name;
+        }
+
+        abstract String apply(Seed seed, MutationContext context) throws IOException;
+    }
+
+    private record Attempt(Seed seed, Operator operator, String mutant, long time) {
+    }
+
+    /**
+     * Seeds and operators of one direction, shared by all sessions of the test.
+     */
+    static class SeedQueue {
+        // Seeds per test and direction, further messages are not added (interesting mutants replace weak seeds)
+        private static final int MAX_SEEDS = 4096;
+        // Energy of a seed decays every time it is mutated, so other seeds get their turn
+        private static final double DECAY = 0.9;
+        private static final double MIN_ENERGY = 0.1;
+        // Behavior seen before is worth a fraction of the reward
+        private static final double REPEATED = 0.1;
+        // Seeds taken from the messages and from the anomaly inputs of earlier runs
+        private static final int STORED_SEEDS = 256;
+        private static final double ANOMALY_ENERGY = 2;
+        private static final String[] INTERESTING = {"0", "-1", "1", "127", "128", "255", "256", "-128", "32767",
+                "65535", "2147483647", "-2147483648", "2147483648", "9223372036854775807", "99999999999999999999"};
+
+        private final String separator;
+        private final String[] specialCharacters;
+        private final Map<String, Seed> seeds = new HashMap<>();
+        private final Map<String, List<Seed>> commands = new HashMap<>();
+        private final List<Operator> operators = new ArrayList<>();
+        // Latest mutation in any session
+        private volatile Attempt latest;
+
+        SeedQueue(String separator, String[] specialCharacters) {
+            this.separator = separator == null ? "" : separator;
+            this.specialCharacters = specialCharacters == null ? new String[0] : specialCharacters;
+            addOperators();
+        }
+
+        /**
+         * @return Seed of the message, added to the queue if there is room
+         */
+        synchronized Seed add(String message) {
+            Seed seed = seeds.get(message);
+            if (seed == null) {
+                seed = new Seed(message, commandOf(message), 1);
+                if (seeds.size() < MAX_SEEDS) {
+                    put(seed);
+                }
+            }
+            return seed;
+        }
+
+        /**
+         * Adds random messages kept from earlier runs as seeds, anomaly inputs with more energy.
+         * @return Number of seeds added
+         */
+        synchronized int seed(Seeds stored, boolean toClient, boolean anomalies, RandomGenerator random) {
+            int added = 0;
+            int samples = Math.min(STORED_SEEDS, stored.count(toClient, anomalies));
+            for (int i = 0; i < samples && seeds.size() < MAX_SEEDS; i++) {
+                String message = stored.sample(toClient, anomalies, random);
+                if (message != null && !seeds.containsKey(message)) {
+                    put(new Seed(message, commandOf(message), anomalies ? ANOMALY_ENERGY : 1));
+                    added++;
+                }
+            }
+            return added;
+        }
+
+        private void put(Seed seed) {
+            seeds.put(seed.message, seed);
+            commands.computeIfAbsent(seed.command, c -> new ArrayList<>()).add(seed);
+        }
+
+        /**
+         * @return Seed with the command of the observed message, chosen in proportion to the energy
+         */
+        synchronized Seed pick(Seed observed, RandomGenerator random) {
+            List<Seed> candidates = commands.get(observed.command);
+            Seed seed = observed;
+            if (candidates != null && !candidates.isEmpty()) {
+                double total = 0;
+                for (Seed candidate : candidates) {
+                    total += candidate.energy;
+                }
+                double target = random.nextDouble() * total;
+                for (Seed candidate : candidates) {
+                    target -= candidate.energy;
+                    seed = candidate;
+                    if (target < 0) {
+                        break;
+                    }
+                }
+            }
+            seed.energy = Math.max(MIN_ENERGY, seed.energy * DECAY);
+            return seed;
+        }
+
+        synchronized double energy(Seed seed) {
+            return seed.energy;
+        }
+
+        synchronized Operator pickOperator(RandomGenerator random) {
+            double total = 0;
+            for (Operator operator : operators) {
+                total += 1 + operator.score;
+            }
+            double target = random.nextDouble() * total;
+            for (Operator operator : operators) {
+                target -= 1 + operator.score;
+                if (target < 0) {
+                    return operator;
+                }
+            }
+            return operators.get(operators.size() - 1);
+        }
+
+        /**
+         * Gives energy to the seed and operator of a mutation, a mutant causing new behavior becomes a seed.
+         * @return Reward of the mutation
+         */
+        synchronized double reward(Attempt attempt, Feedback.Signal signal, boolean first) {
+            double reward = switch (signal) {
+                case SERVER_ERROR, CLIENT_ERROR -> 8;
+                case DISCONNECT -> 4;
+                case NEW_RESPONSE, LATENCY_SPIKE -> 2;
+            };
+            if (!first) {
+                reward *= REPEATED;
+            }
+            attempt.seed.energy += reward;
+            attempt.operator.score += reward;
+            if (first && !attempt.mutant.isEmpty()) {
+                Seed mutant = seeds.get(attempt.mutant);
+                if (mutant == null) {
+                    if (seeds.size() >= MAX_SEEDS) {
+                        removeWeakest();
+                    }
+                    // Kept with the command of its seed, so it is picked for the same messages
+                    put(new Seed(attempt.mutant, attempt.seed.command, 1 + reward));
+                } else {
+                    mutant.energy += reward;
+                }
+            }
+            return reward;
+        }
+
+        private void removeWeakest() {
+            Seed weakest = null;
+            for (Seed seed : seeds.values()) {
+                if (weakest == null || seed.energy < weakest.energy) {
+                    weakest = seed;
+                }
+            }
+            seeds.remove(weakest.message);
+            commands.get(weakest.command).remove(weakest);
+        }
+
+        private String commandOf(String message) {
+            int end = separator.isEmpty() ? -1 : message.indexOf(separator);
+            return end < 0 ? message : message.substring(0, end);
+        }
+
+        /**
+         * @return Seed with the same command other than the given one, the seed itself if there is none
+         */
+        private synchronized Seed other(Seed seed, RandomGenerator random) {
+            List<Seed> candidates = commands.get(seed.command);
+            if (candidates == null || candidates.size() < 2) {
+                return seed;
+            }
+            Seed other = candidates.get(random.nextInt(candidates.size()));
+            return other == seed ? candidates.get((candidates.indexOf(seed) + 1) % candidates.size()) : other;
+        }
+
+        private void addOperators() {
+            operators.add(delegate(new TransformPartialMutator()));
+            operators.add(new Operator("DeletePartial") {
+                private final Mutator mutator = new DeletePartialMutator();
+
+                @Override
+                String apply(Seed seed, MutationContext context) throws IOException {
+                    return seed.message.length() < 2 ? seed.message : mutator.mutate(seed.message, context);
+                }
+            });
+            operators.add(delegate(new ProtocolSeparatorsMutator()));
+            operators.add(new Operator("SpecialChars") {
+                private final Mutator mutator = new SpecialCharsMutator();
+
+                @Override
+                String apply(Seed seed, MutationContext context) throws IOException {
+                    return specialCharacters.length == 0 ? seed.message : mutator.mutate(seed.message, context);
+                }
+            });
+            operators.add(new Operator("BitFlip") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    char[] chars = seed.message.toCharArray();
+                    int position = context.getRandom().nextInt(chars.length);
+                    char flipped = (char) (chars[position] ^ (1 << context.getRandom().nextInt(8)));
+                    // A line break would split the message
+                    chars[position] = flipped == '\n' || flipped == '\r' ? '?' : flipped;
+                    String mutant = new String(chars);
+                    context.log("Flipped a bit of message " + seed.message + ": " + mutant);
+                    return mutant;
+                }
+            });
+            operators.add(new Operator("InterestingValue") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    String value = INTERESTING[context.getRandom().nextInt(INTERESTING.length)];
+                    String[] fields = fields(seed.message);
+                    List<Integer> numbers = new ArrayList<>();
+                    for (int i = 1; i < fields.length; i++) {
+                        if (fields[i].matches("-?[0-9]+")) {
+                            numbers.add(i);
+                        }
+                    }
+                    String mutant;
+                    if (numbers.isEmpty()) {
+                        mutant = seed.message + separator + value;
+                    } else {
+                        fields[numbers.get(context.getRandom().nextInt(numbers.size()))] = value;
+                        mutant = String.join(separator, fields);
+                    }
+                    context.log("Inserted value " + value + " into message " + seed.message + ": " + mutant);
+                    return mutant;
+                }
+            });
+            operators.add(new Operator("DuplicateField") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    List<String> fields = new ArrayList<>(List.of(fields(seed.message)));
+                    int field = context.getRandom().nextInt(fields.size());
+                    fields.add(field, fields.get(field));
+                    String mutant = String.join(separator, fields);
+                    context.log("Duplicated a field of message " + seed.message + ": " + mutant);
+                    return mutant;
+                }
+            });
+            operators.add(new Operator("DeleteField") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    List<String> fields = new ArrayList<>(List.of(fields(seed.message)));
+                    if (fields.size() < 2) {
+                        return seed.message;
+                    }
+                    // The command is kept
+                    fields.remove(1 + context.getRandom().nextInt(fields.size() - 1));
+                    String mutant = String.join(separator, fields);
+                    context.log("Deleted a field of message " + seed.message + ": " + mutant);
+                    return mutant;
+                }
+            });
+            operators.add(new Operator("Splice") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    Seed other = other(seed, context.getRandom());
+                    String[] head = fields(seed.message);
+                    String[] tail = fields(other.message);
+                    int cut = 1 + context.getRandom().nextInt(Math.max(1, Math.min(head.length, tail.length)));
+                    List<String> fields = new ArrayList<>(List.of(head).subList(0, Math.min(cut, head.length)));
+                    fields.addAll(List.of(tail).subList(Math.min(cut, tail.length), tail.length));
+                    String mutant = String.join(separator, fields);
+                    context.log("Spliced message " + seed.message + " with " + other.message + ": " + mutant);
+                    return mutant;
+                }
+            });
+            operators.add(new Operator("Truncate") {
+                @Override
+                String apply(Seed seed, MutationContext context) {
+                    if (seed.message.length() < 2) {
+                        return seed.message;
+                    }
+                    String mutant = seed.message.substring(0, 1 + context.getRandom().nextInt(seed.message.length() - 1));
+                    context.log("Truncated message " + seed.message + " to " + mutant);
+                    return mutant;
+                }
+            });
+        }
+
+        private static Operator delegate(Mutator mutator) {
+            return new Operator(mutator.getName()) {
+                @Override
+                String apply(Seed seed, MutationContext context) throws IOException {
+                    return mutator.mutate(seed.message, context);
+                }
+            };
+        }
+
+        private String[] fields(String message) {
+            if (separator.isEmpty()) {
+                return new String[]{message};
+            }
+            return message.split(Pattern.quote(separator), -1);
+        }
+    }
+}
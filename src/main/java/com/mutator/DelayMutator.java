@@ -0,0 +1,27 @@
+package com.mutator;
+
+/**
+ *  Delay Test: Relays the message after a delay that is specified in the test config.
+ *  Blocks the relay thread while waiting.
+ */
+public class DelayMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "Delay";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        int duration = Integer.parseInt(context.getTestValue());
+        if (duration > 0) {
+            context.log("Delaying for " + duration  + " sec.");
+            try {
+                Thread.sleep(duration * 1000L);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,23 @@
+package com.mutator;
+
+/**
+ *  DeletePartial Test: Deletes a random character of the message.
+ */
+public class DeletePartialMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "DeletePartial";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        int random = (int)(context.getRandom().nextDouble() * (message.length()-1));
+        if (random == 0) { // In case the random number generated is 0.
+            random = 1;
+        }
+        String newMessage = message.substring(0, random) + message.substring(random + 1);
+        context.log("Message " + message + " partially deleted to " + newMessage);
+        return newMessage;
+    }
+}
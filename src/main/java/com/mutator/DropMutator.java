@@ -0,0 +1,18 @@
+package com.mutator;
+
+/**
+ *  Drop Test: Drops the message, changing it to an empty string.
+ */
+public class DropMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "Drop";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        context.log("Dropping message " + message);
+        return "";
+    }
+}
@@ -0,0 +1,140 @@
+package com.mutator;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ *  Behavior of the game observed during a test, shared by all sessions of the test.
+ *  The tool reports errors in the output of the game JARs, disconnects, response commands seen for the first time
+ *  and slow answers of the game server; mutators can listen to these signals (e.g. the Adaptive test).
+ */
+public class Feedback {
+    // Different response commands remembered per test
+    private static final int MAX_RESPONSES = 1024;
+    // Different behaviors remembered per test
+    private static final int MAX_BEHAVIORS = 4096;
+
+    public enum Signal {
+        // Exception in the output of the game server JAR
+        SERVER_ERROR,
+        // Exception in the output of a game client JAR
+        CLIENT_ERROR,
+        // A connection has been closed by the game before the end of the test
+        DISCONNECT,
+        // The game server answered with a command not seen before in the test
+        NEW_RESPONSE,
+        // The game server answered much slower than usual
+        LATENCY_SPIKE
+    }
+
+    public interface Listener {
+        /**
+         * Called by the thread that observed the behavior.
+         * @param session Session the signal belongs to, 0 if unknown (e.g. output of the game server)
+         * @param detail Description of the behavior, e.g. the error line or the command
+         * @param first true if the behavior has not been observed before in the test
+         */
+        void onSignal(Signal signal, int session, String detail, boolean first);
+    }
+
+    private final Map<Integer, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private final Set<String> responses = ConcurrentHashMap.newKeySet();
+    private final Set<String> behaviors = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> shared = new ConcurrentHashMap<>();
+    private final Map<Signal, LongAdder> counts = new EnumMap<>(Signal.class);
+
+    public Feedback() {
+        for (Signal signal : Signal.values()) {
+            counts.put(signal, new LongAdder());
+        }
+    }
+
+    /**
+     * @param session Session whose signals are passed to the listener, signals of unknown sessions reach all listeners
+     */
+    public void addListener(int session, Listener listener) {
+        listeners.computeIfAbsent(session, s -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Removes the listeners of a session that has ended, so later signals do not reach them.
+     */
+    public void removeListeners(int session) {
+        listeners.remove(session);
+    }
+
+    /**
+     * Reports an observed behavior to the listeners of the session.
+     * @param session Session the signal belongs to, 0 if unknown
+     */
+    public void signal(Signal signal, int session, String detail) {
+        counts.get(signal).increment();
+        boolean first = behaviors.size() < MAX_BEHAVIORS && behaviors.add(signature(signal, detail));
+        if (session == 0) {
+            for (List<Listener> sessionListeners : listeners.values()) {
+                notify(sessionListeners, signal, session, detail, first);
+            }
+        } else {
+            notify(listeners.get(session), signal, session, detail, first);
+        }
+    }
+
+    private static void notify(List<Listener> sessionListeners, Signal signal, int session, String detail, boolean first) {
+        if (sessionListeners == null) {
+            return;
+        }
+        for (Listener listener : sessionListeners) {
+            listener.onSignal(signal, session, detail, first);
+        }
+    }
+
+    /**
+     * Behaviors differing only in numbers (line numbers, thread names, times) are the same behavior.
+     */
+    private static String signature(Signal signal, String detail) {
+        if (signal == Signal.LATENCY_SPIKE) {
+            // Only the command, the times of two spikes always differ
+            int end = detail.lastIndexOf(':');
+            return signal + ":" + (end < 0 ? detail : detail.substring(0, end));
+        }
+        return signal + ":" + detail.replaceAll("[0-9]+", "#");
+    }
+
+    /**
+     * Reports a NEW_RESPONSE signal if the command has not been answered before in the test.
+     * @param command Command of a message of the game server, ignored if null
+     */
+    public void responseReceived(String command, int session) {
+        if (command != null && responses.size() < MAX_RESPONSES && responses.add(command)) {
+            signal(Signal.NEW_RESPONSE, session, command);
+        }
+    }
+
+    /**
+     * State shared by the mutators of all sessions of the test, created by the first one asking for it.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T shared(String key, Supplier<T> factory) {
+        return (T) shared.computeIfAbsent(key, k -> factory.get());
+    }
+
+    public long getCount(Signal signal) {
+        return counts.get(signal).sum();
+    }
+
+    /**
+     * @return Summary logged at the end of the test
+     */
+    public String summary() {
+        return getCount(Signal.SERVER_ERROR) + " server errors, " + getCount(Signal.CLIENT_ERROR) + " client errors, "
+                + getCount(Signal.DISCONNECT) + " disconnects, "
+                + getCount(Signal.NEW_RESPONSE) + " different responses, "
+                + getCount(Signal.LATENCY_SPIKE) + " latency spikes, " + behaviors.size() + " distinct behaviors";
+    }
+}
@@ -0,0 +1,143 @@
+package com.mutator;
+
+import com.Distribution;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Fragment Test: Re-chunks the byte stream of the messages, so the game receives lines split across reads
+ *  and several lines in one read. The stream is cut into writes whose size in bytes is drawn from the
+ *  configured distribution around the value of the test (jitter as spread).
+ *  A write smaller than a message splits it at that byte offset, the rest of the message follows in further writes.
+ *  Messages smaller than the next write are held back for up to LINGER ms and coalesced with the following
+ *  messages into one write. Only complete messages are held back, the line of a message is never left incomplete.
+ *  Held back messages are written before a message the test does not select, so the content of the stream is kept.
+ */
+public class FragmentMutator implements Mutator {
+    // Time held back messages wait for further messages before they are written
+    private static final long LINGER = 20;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private Distribution distribution;
+    private int chunkSize;
+    private int jitter;
+    private int nextWrite;
+    // Messages held back for coalescing, held[0, heldLength)
+    private byte[] held;
+    private int heldLength;
+    private boolean lingering;
+
+    @Override
+    public String getName() {
+        return "Fragment";
+    }
+
+    @Override
+    public void init(MutationContext context) {
+        distribution = Distribution.parse(context.getTest().getDistribution());
+        chunkSize = Math.max(1, Integer.parseInt(context.getTestValue()));
+        jitter = context.getTest().getJitter();
+        nextWrite = sample(context);
+    }
+
+    @Override
+    public synchronized String mutate(String message, MutationContext context) throws IOException {
+        byte[] bytes = append(message.getBytes(StandardCharsets.UTF_8));
+        int length = heldLength;
+        if (length < nextWrite) {
+            // Coalesced with the next messages, or written when the linger time has passed
+            linger(context);
+            return null;
+        }
+
+        // The held bytes are written now, the arrays passed to sendBytes() are not reused
+        held = null;
+        heldLength = 0;
+        int offset = 0;
+        int writes = 0;
+        while (length - offset >= nextWrite) {
+            context.sendBytes(bytes, offset, nextWrite);
+            offset += nextWrite;
+            writes++;
+            nextWrite = sample(context);
+        }
+        if (offset < length) {
+            // Rest of the message
+            context.sendBytes(bytes, offset, length - offset);
+            writes++;
+        }
+        context.log("Sent " + length + " bytes in " + writes + " writes: " + message);
+        return null;
+    }
+
+    /**
+     * Appends the message and its line separator to the held bytes.
+     * @return Array holding the bytes
+     */
+    private byte[] append(byte[] message) {
+        int length = heldLength + message.length + LINE_SEPARATOR.length;
+        if (held == null || held.length < length) {
+            byte[] grown = new byte[Math.max(length, held == null ? 0 : held.length * 2)];
+            if (held != null) {
+                System.arraycopy(held, 0, grown, 0, heldLength);
+            }
+            held = grown;
+        }
+        System.arraycopy(message, 0, held, heldLength, message.length);
+        System.arraycopy(LINE_SEPARATOR, 0, held, heldLength + message.length, LINE_SEPARATOR.length);
+        heldLength = length;
+        return held;
+    }
+
+    /**
+     * Writes the held messages after LINGER ms, unless further messages have been written with them.
+     */
+    private void linger(MutationContext context) {
+        if (lingering) {
+            return;
+        }
+        lingering = true;
+        try {
+            context.getScheduler().schedule(() -> flushHeld(context), LINGER, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The test has been cancelled in the meantime
+            lingering = false;
+        }
+    }
+
+    private synchronized void flushHeld(MutationContext context) {
+        lingering = false;
+        writeHeld(context);
+    }
+
+    /**
+     * Writes the held messages before the message the test does not select.
+     */
+    @Override
+    public synchronized void flush(MutationContext context) {
+        writeHeld(context);
+    }
+
+    private void writeHeld(MutationContext context) {
+        if (heldLength == 0) {
+            return;
+        }
+        byte[] bytes = held;
+        int length = heldLength;
+        held = null;
+        heldLength = 0;
+        try {
+            context.sendBytes(bytes, 0, length);
+            context.log("Sent " + length + " held bytes in 1 write.");
+        } catch (IOException e) {
+            context.log(e.getMessage());
+        }
+    }
+
+    private int sample(MutationContext context) {
+        return Math.max(1, (int) Math.round(distribution.sample(chunkSize, jitter, context.getRandom())));
+    }
+}
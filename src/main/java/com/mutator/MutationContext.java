@@ -0,0 +1,78 @@
+package com.mutator;
+
+import com.test.Protocol;
+import com.test.Test;
+
+import java.io.IOException;
+import java.util.random.RandomGenerator;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ *  What a Mutator can access: the configuration, the relay direction and logging.
+ */
+public interface MutationContext {
+
+    Test getTest();
+
+    /**
+     * @return Value of the test as specified in the config.
+     */
+    String getTestValue();
+
+    String getProtocolSeparator();
+
+    String[] getSpecialCharacters();
+
+    /**
+     * @return Protocol described in the config, compiled once for all tests (null if not described).
+     */
+    Protocol getProtocol();
+
+    /**
+     * @return true if the messages are relayed to the game client.
+     */
+    boolean isClient();
+
+    /**
+     * Sends an additional message in the direction of the relayed messages.
+     */
+    void send(String message) throws IOException;
+
+    /**
+     * Sends bytes as they are (no line separator is added) with a single, immediately flushed write,
+     * in the direction of the relayed messages. TCP_NODELAY is set on the socket, so small writes are not merged.
+     * The bytes must not be changed afterwards, they may be written later (e.g. by the NIO relay).
+     */
+    void sendBytes(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Logs a message for the current test and direction.
+     */
+    void log(String message);
+
+    /**
+     * @return Random number generator of this direction, seeded from the seed of the test.
+     * Not thread-safe, only to be used by the relay thread.
+     */
+    RandomGenerator getRandom();
+
+    /**
+     * @return Single threaded scheduler of this direction, for messages sent later.
+     */
+    ScheduledExecutorService getScheduler();
+
+    /**
+     * @return Session of this direction, starting at 1.
+     */
+    int getSessionId();
+
+    /**
+     * @return Behavior of the game observed during the test, shared by all sessions.
+     */
+    Feedback getFeedback();
+
+    /**
+     * @return Messages kept from earlier runs, shared by all tests (null if no corpus is configured).
+     */
+    Seeds getSeeds();
+}
@@ -0,0 +1,40 @@
+package com.mutator;
+
+import java.io.IOException;
+
+/**
+ *  A test applied to the relayed messages, selected by the testName in the config.
+ *  Implementations are discovered with ServiceLoader (META-INF/services/com.mutator.Mutator),
+ *  so additional tests can be added to the classpath without changing the relay.
+ *  A new instance is created for every direction of every test.
+ */
+public interface Mutator {
+
+    /**
+     * @return Test name as used in the config, e.g. "Drop".
+     */
+    String getName();
+
+    /**
+     * Called once before the first message is mutated.
+     * @param context Context of the relay direction
+     */
+    default void init(MutationContext context) {
+    }
+
+    /**
+     * Applies the test to a message.
+     * @param message Message string.
+     * @param context Context of the relay direction
+     * @return Message to relay, or null if the mutator takes care of sending it.
+     */
+    String mutate(String message, MutationContext context) throws IOException;
+
+    /**
+     * Called before a message the test does not select (commands, ignoreCommands) is relayed in this direction.
+     * A mutator holding back messages to write them later writes them now, so they are not overtaken.
+     * @param context Context of the relay direction
+     */
+    default void flush(MutationContext context) throws IOException {
+    }
+}
@@ -0,0 +1,50 @@
+package com.mutator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ *  Looks up the Mutator for a test name.
+ *  The providers are indexed by their test name once, later lookups only instantiate the requested Mutator.
+ */
+public class Mutators {
+    private static final Map<String, ServiceLoader.Provider<Mutator>> PROVIDERS = index();
+
+    private static Map<String, ServiceLoader.Provider<Mutator>> index() {
+        Map<String, ServiceLoader.Provider<Mutator>> providers = new HashMap<>();
+        ServiceLoader.load(Mutator.class).stream()
+                .forEach(provider -> providers.putIfAbsent(provider.get().getName(), provider));
+        return Collections.unmodifiableMap(providers);
+    }
+
+    /**
+     * Creates a new instance of the Mutator with the given name.
+     * @param testName Test name as used in the config
+     * @return Mutator
+     * @throws IllegalArgumentException if there is no Mutator with this name, see exists()
+     */
+    public static Mutator create(String testName) {
+        ServiceLoader.Provider<Mutator> provider = PROVIDERS.get(testName);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown test " + testName + ".");
+        }
+        return provider.get();
+    }
+
+    /**
+     * @return true if there is a Mutator with the given test name
+     */
+    public static boolean exists(String testName) {
+        return PROVIDERS.containsKey(testName);
+    }
+
+    /**
+     * @return Names of all tests
+     */
+    public static Set<String> names() {
+        return PROVIDERS.keySet();
+    }
+}
@@ -0,0 +1,23 @@
+package com.mutator;
+
+/**
+ *  ProtocolSeparators Test: Adds multiple protocol separators to the message.
+ */
+public class ProtocolSeparatorsMutator implements Mutator {
+    // Separators added at most, besides the one ending the message
+    private static final int MAX_SEPARATORS = 10;
+
+    @Override
+    public String getName() {
+        return "ProtocolSeparators";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        String protocolSeparator = context.getProtocolSeparator();
+        int random = context.getRandom().nextInt(MAX_SEPARATORS) + 1; // +1 for if random generated number is 0
+        message = message + protocolSeparator.repeat(random);
+        context.log("Added multiple protocol separators to message " + message);
+        return message + protocolSeparator;
+    }
+}
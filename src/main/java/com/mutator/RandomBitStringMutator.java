@@ -0,0 +1,27 @@
+package com.mutator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  RandomBitString Test: Relays the message and also sends a random (bit)string afterwards.
+ */
+public class RandomBitStringMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "RandomBitString";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) throws IOException {
+        // Adapted from https://www.baeldung.com/java-random-string
+        byte[] array = new byte[Integer.parseInt(context.getTestValue())]; // Length is bounded by value
+        context.getRandom().nextBytes(array);
+        String randomBitString = new String(array, StandardCharsets.UTF_8);
+
+        context.log("Sending random bitstring " + randomBitString);
+        context.send(randomBitString);
+        return message;
+    }
+}
@@ -0,0 +1,34 @@
+package com.mutator;
+
+import java.io.IOException;
+import java.util.random.RandomGenerator;
+
+/**
+ *  RandomString Test: Relays the message and also sends a random string afterwards.
+ */
+public class RandomStringMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "RandomString";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) throws IOException {
+        // Adapted from https://www.baeldung.com/java-random-string
+        int leftLimit = 48; // numeral '0'
+        int rightLimit = 122; // letter 'z'
+        int randomStringLength = Integer.parseInt(context.getTestValue());
+        RandomGenerator random = context.getRandom();
+
+        String randomString = random.ints(leftLimit, rightLimit + 1)
+                .filter(i -> (i <= 57 || i >= 65) && (i <= 90 || i >= 97))
+                .limit(randomStringLength)
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString();
+
+        context.log("Sending random string " + randomString);
+        context.send(randomString);
+        return message;
+    }
+}
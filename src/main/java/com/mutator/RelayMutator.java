@@ -0,0 +1,17 @@
+package com.mutator;
+
+/**
+ *  Relay Test: Relays the message without modification.
+ */
+public class RelayMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "Relay";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        return message;
+    }
+}
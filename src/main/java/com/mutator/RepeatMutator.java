@@ -0,0 +1,26 @@
+package com.mutator;
+
+import java.io.IOException;
+
+/**
+ *  Repeat Test: Sends the provided message repeatedly for a number of times specified in the config.
+ */
+public class RepeatMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "Repeat";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) throws IOException {
+        int times = Integer.parseInt(context.getTestValue()) - 1;
+        if (times > 0) {
+            context.log("Repeating message " + message + " " + (times + 1) + " times.");
+            for (int i = times; i > 0; i--) {
+                context.send(message);
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,65 @@
+package com.mutator;
+
+import com.Distribution;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  ScheduledDelay Test: Hands the message to a delivery queue that sends it after the delay
+ *  (in seconds, like the Delay test, e.g. 0.05) specified in the test config, varied by the configured
+ *  jitter distribution (jitter in ms). Other messages keep flowing while a message is delayed.
+ *  Unless allowReorder is set, the delayed messages are delivered in the order they were received.
+ *  Messages the test does not select are relayed at once and overtake the delayed ones.
+ */
+public class ScheduledDelayMutator implements Mutator {
+    private Distribution distribution;
+    // Delay and jitter in ms
+    private double delay;
+    private int jitter;
+    private long lastDelivery;
+
+    @Override
+    public String getName() {
+        return "ScheduledDelay";
+    }
+
+    @Override
+    public void init(MutationContext context) {
+        distribution = Distribution.parse(context.getTest().getDistribution());
+        jitter = context.getTest().getJitter();
+        // The value is checked when the config is loaded
+        try {
+            delay = Math.max(0, Double.parseDouble(String.valueOf(context.getTestValue()))) * 1000;
+        } catch (NumberFormatException e) {
+            context.log("Invalid delay " + context.getTestValue() + ", messages are not delayed.");
+        }
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        long now = System.nanoTime();
+        long deliverAt = now + (long) (distribution.sample(delay, jitter, context.getRandom()) * 1_000_000);
+        if (!context.getTest().isAllowReorder()) {
+            // Never schedule before the previous message, the single delivery thread keeps FIFO for ties
+            deliverAt = Math.max(deliverAt, lastDelivery);
+        }
+        lastDelivery = deliverAt;
+
+        context.log("Delaying message " + message + " for " + (deliverAt - now) / 1_000_000 + " ms.");
+        try {
+            context.getScheduler().schedule(() -> {
+                try {
+                    context.send(message);
+                } catch (IOException e) {
+                    context.log(e.getMessage());
+                }
+            }, deliverAt - now, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The test has been cancelled in the meantime
+            context.log("Delayed message " + message + " not delivered.");
+        }
+        return null;
+    }
+}
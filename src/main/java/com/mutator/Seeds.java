@@ -0,0 +1,23 @@
+package com.mutator;
+
+import java.util.random.RandomGenerator;
+
+/**
+ *  Messages kept from earlier runs (the corpus of the config), a seed source for the mutators.
+ */
+public interface Seeds {
+
+    /**
+     * @param toClient Direction of the messages
+     * @param anomalies true for the mutated messages that were followed by an anomaly of the game
+     * @return Number of stored messages
+     */
+    int count(boolean toClient, boolean anomalies);
+
+    /**
+     * @param toClient Direction of the message
+     * @param anomalies true for a mutated message that was followed by an anomaly of the game
+     * @return Stored message chosen at random, null if there is none
+     */
+    String sample(boolean toClient, boolean anomalies, RandomGenerator random);
+}
@@ -0,0 +1,34 @@
+package com.mutator;
+
+/**
+ *  SpecialChars Test: Transforms the command, replacing the command argument with randomly chosen
+ *  special character of those specified in the config.
+ */
+public class SpecialCharsMutator implements Mutator {
+
+    @Override
+    public String getName() {
+        return "SpecialChars";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        String protocolSeparator = context.getProtocolSeparator();
+        String[] specialCharacters = context.getSpecialCharacters();
+
+        // Search for protocol separator
+        int indexSeparator = message.indexOf(protocolSeparator);
+
+        // If no protocol separator is found, add one
+        if (indexSeparator == -1) {
+            message = message + protocolSeparator;
+        }
+
+        // Choose a special character fom the config list
+        int randomSpecialCharIndex = (int)(context.getRandom().nextDouble() * (specialCharacters.length - 1));
+
+        context.log("Adding special character " + specialCharacters[randomSpecialCharIndex] +
+                " to message " + message);
+        return message + specialCharacters[randomSpecialCharIndex];
+    }
+}
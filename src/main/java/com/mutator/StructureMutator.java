@@ -0,0 +1,179 @@
+package com.mutator;
+
+import com.test.Protocol;
+
+import java.util.Locale;
+import java.util.random.RandomGenerator;
+
+/**
+ *  Structure Test: structure-aware mutations based on the protocol described in the config.
+ *  A message of a described command is tokenized once by the compiled Protocol, then one of its arguments
+ *  is replaced with a boundary value (e.g. max + 1 of an int, maxLength + 1 of a string) or a value of
+ *  another type (type confusion), or arguments are removed or added.
+ *  The share of the described messages that is mutated is specified in test.value (default 1).
+ *  Messages of commands that are not described are relayed unchanged.
+ */
+public class StructureMutator implements Mutator {
+    private static final double DEFAULT_RATE = 1;
+    private static final String[] NOT_AN_INT = {"abc", "1.5", "", "0x1F", "1e3", " 1", "+1", "--1", "NaN", "١٢", "1 2"};
+    private static final String[] NOT_A_STRING = {"0", "-1", "2147483648", "null", "true", "%s%n", "../../", "\u0000"};
+    // Length of overlong strings if the string has no maxLength
+    private static final int LONG_STRING = 4096;
+
+    private Protocol protocol;
+    private double rate;
+
+    @Override
+    public String getName() {
+        return "Structure";
+    }
+
+    @Override
+    public void init(MutationContext context) {
+        protocol = context.getProtocol();
+        if (protocol == null) {
+            context.log("No protocol described in the config, messages are relayed unchanged.");
+        }
+        rate = DEFAULT_RATE;
+        if (context.getTestValue() != null && !context.getTestValue().isBlank()) {
+            try {
+                rate = Double.parseDouble(context.getTestValue());
+            } catch (NumberFormatException e) {
+                context.log("Invalid mutation rate " + context.getTestValue() + ", using " + DEFAULT_RATE + ".");
+            }
+        }
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        if (protocol == null) {
+            return message;
+        }
+        RandomGenerator random = context.getRandom();
+        if (rate < 1 && random.nextDouble() >= rate) {
+            return message;
+        }
+        Protocol.Message parsed = protocol.parse(message);
+        if (parsed == null) {
+            return message;
+        }
+
+        // Arguments of the message that are described
+        int described = Math.min(parsed.getCommand().getArguments().length, parsed.getFieldCount() - 1);
+        int strategy = described == 0 ? 2 : random.nextInt(3);
+        String kind;
+        String result;
+        if (strategy < 2) {
+            int field = 1 + random.nextInt(described);
+            Protocol.Argument argument = parsed.getCommand().getArguments()[field - 1];
+            String value = strategy == 0 ? boundary(argument, parsed.field(field), random)
+                                         : confusion(argument, context, random);
+            kind = (strategy == 0 ? "Boundary value" : "Type confusion") + " of argument " + field;
+            result = parsed.replace(field, value);
+        } else {
+            kind = "Argument count";
+            result = changeCount(parsed, protocol.getSeparator(), random);
+        }
+        context.log(kind + ": " + message + " -> " + result);
+        return result;
+    }
+
+    /**
+     * @return Value at or just beyond the limits of the argument
+     */
+    private static String boundary(Protocol.Argument argument, String current, RandomGenerator random) {
+        switch (argument.getType()) {
+            case INT:
+                long min = argument.getMin();
+                long max = argument.getMax();
+                long[] edges = {min == Long.MIN_VALUE ? min : min - 1, min, max, max == Long.MAX_VALUE ? max : max + 1};
+                if (random.nextDouble() < 0.7) {
+                    return Long.toString(edges[random.nextInt(edges.length)]);
+                }
+                long[] extremes = {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, Long.MAX_VALUE,
+                                   Long.MIN_VALUE};
+                return Long.toString(extremes[random.nextInt(extremes.length)]);
+            case ENUM:
+                String[] values = argument.getValues();
+                switch (random.nextInt(4)) {
+                    case 0:
+                        return values[0];
+                    case 1:
+                        return values[values.length - 1];
+                    case 2:
+                        // Same value in another case
+                        String value = values[random.nextInt(values.length)];
+                        String lower = value.toLowerCase(Locale.ROOT);
+                        return lower.equals(value) ? value.toUpperCase(Locale.ROOT) : lower;
+                    default:
+                        return "";
+                }
+            default:
+                int maxLength = argument.getMaxLength();
+                int length;
+                switch (random.nextInt(3)) {
+                    case 0:
+                        length = 0;
+                        break;
+                    case 1:
+                        length = maxLength >= 0 ? maxLength : current.length();
+                        break;
+                    default:
+                        length = maxLength >= 0 ? maxLength + 1 : LONG_STRING;
+                        break;
+                }
+                return "A".repeat(length);
+        }
+    }
+
+    /**
+     * @return Value of another type than the argument
+     */
+    private static String confusion(Protocol.Argument argument, MutationContext context, RandomGenerator random) {
+        String[] specialCharacters = context.getSpecialCharacters();
+        if (specialCharacters != null && specialCharacters.length > 0 && random.nextInt(4) == 0) {
+            return specialCharacters[random.nextInt(specialCharacters.length)];
+        }
+        switch (argument.getType()) {
+            case INT:
+                return NOT_AN_INT[random.nextInt(NOT_AN_INT.length)];
+            case ENUM:
+                return random.nextBoolean() ? Integer.toString(random.nextInt(-1, argument.getValues().length + 1))
+                                            : "UNKNOWN";
+            default:
+                return NOT_A_STRING[random.nextInt(NOT_A_STRING.length)];
+        }
+    }
+
+    /**
+     * @return Message with an argument removed or added, or with the command only
+     */
+    private static String changeCount(Protocol.Message parsed, String separator, RandomGenerator random) {
+        String text = parsed.getText();
+        int arguments = parsed.getFieldCount() - 1;
+        int choice = arguments == 0 ? 3 + random.nextInt(2) : random.nextInt(5);
+        switch (choice) {
+            case 0:
+                // Without the last argument
+                return text.substring(0, parsed.end(arguments - 1));
+            case 1: {
+                // Without a random argument
+                int field = 1 + random.nextInt(arguments);
+                return text.substring(0, parsed.end(field - 1)) + text.substring(parsed.end(field));
+            }
+            case 2:
+                // Command only
+                return parsed.field(0);
+            case 3: {
+                // An extra argument, copied from the message if possible
+                String extra = arguments > 0 ? parsed.field(1 + random.nextInt(arguments)) : "0";
+                return text + separator + extra;
+            }
+            default: {
+                // All arguments twice
+                String tail = text.substring(parsed.end(0));
+                return text + (arguments > 0 ? tail : separator + "0" + separator + "0");
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.mutator;
+
+/**
+ *  TransformPartial Test: Replaces a random character in the message.
+ */
+public class TransformPartialMutator implements Mutator {
+    // Replacement characters to choose from:
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.:,;-";
+
+    @Override
+    public String getName() {
+        return "TransformPartial";
+    }
+
+    @Override
+    public String mutate(String message, MutationContext context) {
+        char[] chars = message.toCharArray();
+        int random = context.getRandom().nextInt(message.length());
+        char randomChar = ALPHABET.charAt(context.getRandom().nextInt(ALPHABET.length()));
+        chars[random] = randomChar;
+        String newMessage = new String(chars);
+        context.log("Message " + message + " partially transformed into " + newMessage);
+        return newMessage;
+    }
+}
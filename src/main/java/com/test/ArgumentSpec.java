@@ -0,0 +1,67 @@
+package com.test;
+
+/**
+ *  Argument of a command in the protocol description of the JSON config.
+ */
+public class ArgumentSpec {
+    private String type;
+    private Long min;
+    private Long max;
+    private String[] values;
+    private Integer maxLength;
+
+    /**
+     * @return "int", "enum" or "string".
+     */
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return Smallest valid value of an int argument (null for the smallest int).
+     */
+    public Long getMin() {
+        return min;
+    }
+
+    public void setMin(Long min) {
+        this.min = min;
+    }
+
+    /**
+     * @return Largest valid value of an int argument (null for the largest int).
+     */
+    public Long getMax() {
+        return max;
+    }
+
+    public void setMax(Long max) {
+        this.max = max;
+    }
+
+    /**
+     * @return Valid values of an enum argument.
+     */
+    public String[] getValues() {
+        return values;
+    }
+
+    public void setValues(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return Maximum length of a string argument (null for no limit).
+     */
+    public Integer getMaxLength() {
+        return maxLength;
+    }
+
+    public void setMaxLength(Integer maxLength) {
+        this.maxLength = maxLength;
+    }
+}
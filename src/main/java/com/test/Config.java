@@ -1,43 +1,273 @@
 package com.test;
 
+import com.Distribution;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.mutator.Mutators;
 
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  *  Reads the JSON config file and creates the corresponding objects.
+ *  The file is streamed, load() reads the tests lazily from the config (or from the JSON Lines testsFile)
+ *  whenever they are iterated, see TestSource. getTestConfig() reads them once and keeps the list.
+ *  Errors name the file and the location in it, e.g. config.json $.tests[3].duration or tests.jsonl:12.
  */
 public class Config {
+    static final String TESTS = "tests";
+    private static final Gson GSON = new Gson();
+    // Tests whose value is a whole number, e.g. the delay in seconds or the length of the random strings
+    private static final Set<String> INTEGER_VALUES = Set.of("Delay", "Repeat", "RandomString", "RandomBitString",
+                                                             "Fragment");
 
-    public static String readJsonFile(String filePath) {
-        String str = "";
+    /**
+     * Loads the config and reads and checks all tests once, errors are printed.
+     * @return Config with the list of tests, null if it is invalid or cannot be read
+     */
+    public static TestToolConfig getTestConfig(String jsonFilePath) {
         try {
-            FileReader fr = new FileReader(filePath);
-            int i;
-            while ((i = fr.read()) != -1)
-                str += "" + ((char) i);
+            TestToolConfig config = load(Paths.get(jsonFilePath));
+            List<Test> tests = new ArrayList<>();
+            int enabled = 0;
+            for (Test test : config.getTests()) {
+                tests.add(test);
+                if (test.isEnabled()) {
+                    enabled++;
+                }
+            }
+            // Kept, so the tests are not read from the file again for every game
+            config.setTests(tests);
+            System.out.println("Config " + jsonFilePath + ": " + tests.size() + " tests, " + enabled + " enabled.");
+            return config;
+        } catch (UncheckedIOException e) {
+            System.out.println("Invalid config: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Invalid config: " + e.getMessage());
+        }
+        return null;
+    }
 
-            fr.close();
+    /**
+     * Reads the properties of the config, the tests are read lazily.
+     * @throws IOException if the file cannot be read or is invalid, with the location of the error
+     */
+    public static TestToolConfig load(Path path) throws IOException {
+        TestToolConfig config = new TestToolConfig();
+        boolean inlineTests = false;
+        try (JsonReader reader = open(path)) {
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals(TESTS)) {
+                        inlineTests = reader.peek() != JsonToken.NULL;
+                        reader.skipValue();
+                    } else {
+                        readProperty(reader, config, name, path);
+                    }
+                }
+                reader.endObject();
+                if (reader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new IOException(path + " " + reader.getPath() + ": Unexpected data after the config.");
+                }
+            } catch (MalformedJsonException | JsonParseException | IllegalStateException | NumberFormatException e) {
+                // Described before the reader is closed, which resets its location
+                throw new IOException(path + ": " + describe(e, reader), e);
+            }
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        try {
+            config.getProtocol();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(path + " $.protocol: " + e.getMessage(), e);
         }
-        System.out.println("config.json: \n" + str);
-        return str;
+        validate(config.getResponseMapping(), path + " $.responseMapping");
+        if (!config.getLogBackpressure().equalsIgnoreCase("block") && !config.isLogDropWhenFull()) {
+            throw new IOException(path + " $.logBackpressure: Unknown value " + config.getLogBackpressure()
+                    + ", use block or drop.");
+        }
+
+        if (config.getTestsFile() != null) {
+            if (inlineTests) {
+                throw new IOException(path + ": Either tests or testsFile can be set, not both.");
+            }
+            Path testsFile = path.resolveSibling(config.getTestsFile());
+            if (!Files.isReadable(testsFile)) {
+                throw new IOException(path + " $.testsFile: Cannot read " + testsFile + ".");
+            }
+            config.setTestSource(new TestSource(testsFile, true, config.isNioRelay()));
+        } else if (inlineTests) {
+            config.setTestSource(new TestSource(path, false, config.isNioRelay()));
+        }
+        return config;
     }
 
-    public static TestToolConfig getTestConfig(String jsonFilePath) {
-        TestToolConfig list = null;
+    /**
+     * Reads a property into the field of the same name, unknown properties are skipped with a warning.
+     */
+    private static void readProperty(JsonReader reader, TestToolConfig config, String name, Path path) throws IOException {
+        Field field;
+        try {
+            field = TestToolConfig.class.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            field = null;
+        }
+        if (field == null || Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+            System.out.println("Unknown config property " + path + " " + reader.getPath() + ", ignored.");
+            reader.skipValue();
+            return;
+        }
+        TypeAdapter<?> adapter = GSON.getAdapter(TypeToken.get(field.getGenericType()));
+        Object value = adapter.read(reader);
+        if (value == null && field.getType().isPrimitive()) {
+            return;
+        }
         try {
-            String jsonStr = readJsonFile(jsonFilePath);
-            list = new Gson().fromJson(jsonStr, new TypeToken<TestToolConfig>() {
-            }.getType());
-        } catch (Exception e) {
-            System.out.println("Invalid Json file: " + jsonFilePath);
-            e.printStackTrace();
-        }
-        return list;
+            field.setAccessible(true);
+            field.set(config, value);
+        } catch (IllegalAccessException e) {
+            throw new IOException(path + " " + reader.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks the values of a test that Gson cannot check.
+     * @param location File and path of the test, e.g. config.json $.tests[3]
+     * @param nioRelay true if the config uses the nio or raw relay mode
+     */
+    static void validate(Test test, String location, boolean nioRelay) throws IOException {
+        if (test == null) {
+            throw new IOException(location + ": Test is null.");
+        }
+        if (test.getTestName() == null || test.getTestName().isBlank()) {
+            throw new IOException(location + ".testName: Missing test name.");
+        }
+        if (!Mutators.exists(test.getTestName())) {
+            throw new IOException(location + ".testName: Unknown test " + test.getTestName() + ", available tests: "
+                    + String.join(", ", new TreeSet<>(Mutators.names())) + ".");
+        }
+        if (test.isEnabled() && test.getDuration() <= 0) {
+            throw new IOException(location + ".duration: Duration of test " + test.getTestName() + " must be positive.");
+        }
+        if (test.getJitter() < 0) {
+            throw new IOException(location + ".jitter: Must not be negative.");
+        }
+        if (test.getMaxMessages() < 0) {
+            throw new IOException(location + ".maxMessages: Must not be negative.");
+        }
+        if (test.getIdleTimeout() < 0) {
+            throw new IOException(location + ".idleTimeout: Must not be negative.");
+        }
+        if (test.getLoadClients() < 0) {
+            throw new IOException(location + ".loadClients: Must not be negative.");
+        }
+        try {
+            Distribution.parse(test.getDistribution());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(location + ".distribution: " + e.getMessage());
+        }
+        if (test.isEnabled()) {
+            validateValue(test, location + ".value");
+        }
+        if (test.isEnabled() && nioRelay && test.getTestName().equals("Delay")) {
+            // Delay sleeps on the relay thread, which serves both directions of all sessions in these modes
+            throw new IOException(location + ".testName: Delay blocks the nio and raw relay modes, use ScheduledDelay.");
+        }
+        validate(test.getShaping(), location + ".shaping");
+        validate(test.getShapingToClient(), location + ".shapingToClient");
+    }
+
+    /**
+     * Checks the value of the tests that parse it as a number, so the relay does not fail on it.
+     */
+    private static void validateValue(Test test, String location) throws IOException {
+        boolean whole = INTEGER_VALUES.contains(test.getTestName());
+        if (!whole && !test.getTestName().equals("ScheduledDelay")) {
+            return;
+        }
+        String value = test.getValue() == null ? "" : test.getValue();
+        double number;
+        try {
+            number = whole ? Integer.parseInt(value) : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException(location + ": " + test.getTestName() + " requires a "
+                    + (whole ? "whole number" : "number") + ", not " + value + ".");
+        }
+        if (number < 0 || Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new IOException(location + ": Must not be negative.");
+        }
+    }
+
+    /**
+     * Checks that every command of the responseMapping has a list of answer commands without nulls.
+     */
+    private static void validate(Map<String, String[]> responseMapping, String location) throws IOException {
+        if (responseMapping == null) {
+            return;
+        }
+        for (Map.Entry<String, String[]> entry : responseMapping.entrySet()) {
+            if (entry.getValue() == null || entry.getValue().length == 0) {
+                throw new IOException(location + "." + entry.getKey() + ": Requires a list of answer commands.");
+            }
+            for (String response : entry.getValue()) {
+                if (response == null) {
+                    throw new IOException(location + "." + entry.getKey() + ": Answer commands must not be null.");
+                }
+            }
+        }
+    }
+
+    private static void validate(Shaping shaping, String location) throws IOException {
+        if (shaping == null) {
+            return;
+        }
+        if (shaping.getBandwidth() < 0 || shaping.getBurst() < 0 || shaping.getLatency() < 0 || shaping.getJitter() < 0) {
+            throw new IOException(location + ": bandwidth, burst, latency and jitter must not be negative.");
+        }
+        if (shaping.getLoss() < 0 || shaping.getLoss() >= 1) {
+            throw new IOException(location + ".loss: Must be at least 0 and less than 1.");
+        }
+    }
+
+    /**
+     * Opens a buffered, lenient reader as used by Gson.fromJson (comments and unquoted names are accepted).
+     */
+    static JsonReader open(Path path) throws IOException {
+        JsonReader reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * @return Message of the innermost cause (Gson wraps the exceptions), with the location of the reader if it has none
+     */
+    static String describe(Exception e, JsonReader reader) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage();
+        if (message == null || !message.contains(" path $")) {
+            // e.g. "at line 2 column 20 path $.timeout"
+            message += reader.toString().substring(JsonReader.class.getSimpleName().length());
+        }
+        return message;
     }
 }
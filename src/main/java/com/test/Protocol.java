@@ -0,0 +1,298 @@
+package com.test;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *  Protocol description of the config, compiled once into a tokenizer for the structure-aware tests.
+ *  A message is the command followed by its arguments, separated by the protocolSeparator.
+ *  parse() finds the command with a hash table lookup on the characters of the first field (no substring)
+ *  and records the bounds of all fields in a single pass over the message.
+ *  Command names are matched ignoring case char by char, like the commands of the config (see CommandMatcher).
+ */
+public class Protocol {
+
+    public enum Type { INT, ENUM, STRING }
+
+    /**
+     * Compiled argument of a command.
+     */
+    public static final class Argument {
+        private final Type type;
+        private final long min;
+        private final long max;
+        private final String[] values;
+        private final int maxLength;
+
+        private Argument(Type type, long min, long max, String[] values, int maxLength) {
+            this.type = type;
+            this.min = min;
+            this.max = max;
+            this.values = values;
+            this.maxLength = maxLength;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return Values of an enum argument, empty otherwise
+         */
+        public String[] getValues() {
+            return values;
+        }
+
+        /**
+         * @return Maximum length of a string argument, -1 for no limit
+         */
+        public int getMaxLength() {
+            return maxLength;
+        }
+    }
+
+    /**
+     * Compiled command.
+     */
+    public static final class Command {
+        private final String name;
+        private final Argument[] arguments;
+
+        private Command(String name, Argument[] arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Argument[] getArguments() {
+            return arguments;
+        }
+    }
+
+    /**
+     * A message split into its fields: field 0 is the command, fields 1.. its arguments.
+     */
+    public static final class Message {
+        private final String text;
+        private final Command command;
+        // start and end of every field
+        private final int[] bounds;
+        private final int fields;
+
+        private Message(String text, Command command, int[] bounds, int fields) {
+            this.text = text;
+            this.command = command;
+            this.bounds = bounds;
+            this.fields = fields;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+
+        /**
+         * @return Number of fields including the command
+         */
+        public int getFieldCount() {
+            return fields;
+        }
+
+        public int start(int field) {
+            return bounds[2 * field];
+        }
+
+        public int end(int field) {
+            return bounds[2 * field + 1];
+        }
+
+        public String field(int field) {
+            return text.substring(start(field), end(field));
+        }
+
+        /**
+         * @return Message with the field replaced
+         */
+        public String replace(int field, String value) {
+            return new StringBuilder(text.length() + value.length())
+                    .append(text, 0, start(field)).append(value).append(text, end(field), text.length()).toString();
+        }
+    }
+
+    private final String separator;
+    // Open addressing table of the commands, indexed by the hash of their name
+    private final Command[] table;
+    private final int mask;
+
+    private Protocol(Map<String, ArgumentSpec[]> commands, String separator) {
+        this.separator = separator;
+        int size = Integer.highestOneBit(Math.max(1, commands.size()) * 2) * 2;
+        this.table = new Command[size];
+        this.mask = size - 1;
+        for (Map.Entry<String, ArgumentSpec[]> entry : commands.entrySet()) {
+            String name = entry.getKey();
+            ArgumentSpec[] specs = entry.getValue() != null ? entry.getValue() : new ArgumentSpec[0];
+            Argument[] arguments = new Argument[specs.length];
+            for (int i = 0; i < specs.length; i++) {
+                arguments[i] = compile(specs[i], name + "[" + i + "]");
+            }
+            int slot = hash(name, 0, name.length()) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = new Command(name, arguments);
+        }
+    }
+
+    /**
+     * Compiles the protocol description of the config.
+     * @param commands Arguments by command
+     * @param separator protocolSeparator of the config
+     * @throws IllegalArgumentException if the description is invalid, with the command and argument, e.g. "GIVGL[0]"
+     */
+    public static Protocol compile(Map<String, ArgumentSpec[]> commands, String separator) {
+        if (separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("The protocol requires a protocolSeparator.");
+        }
+        Map<String, String> lowerNames = new HashMap<>();
+        for (String name : commands.keySet()) {
+            if (name.isEmpty() || name.contains(separator)) {
+                throw new IllegalArgumentException("Invalid command name \"" + name + "\".");
+            }
+            String other = lowerNames.put(lowerCase(name), name);
+            if (other != null) {
+                throw new IllegalArgumentException("Command names \"" + other + "\" and \"" + name
+                        + "\" only differ in case.");
+            }
+        }
+        return new Protocol(commands, separator);
+    }
+
+    private static Argument compile(ArgumentSpec spec, String location) {
+        if (spec == null || spec.getType() == null) {
+            throw new IllegalArgumentException(location + ": Missing type.");
+        }
+        Type type;
+        try {
+            type = Type.valueOf(spec.getType().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(location + ": Unknown type " + spec.getType() + ", use int, enum or string.");
+        }
+        long min = spec.getMin() != null ? spec.getMin() : Integer.MIN_VALUE;
+        long max = spec.getMax() != null ? spec.getMax() : Integer.MAX_VALUE;
+        if (min > max) {
+            throw new IllegalArgumentException(location + ": min is larger than max.");
+        }
+        String[] values = spec.getValues() != null ? spec.getValues() : new String[0];
+        if (type == Type.ENUM && values.length == 0) {
+            throw new IllegalArgumentException(location + ": An enum requires values.");
+        }
+        int maxLength = spec.getMaxLength() != null ? spec.getMaxLength() : -1;
+        return new Argument(type, min, max, values, maxLength);
+    }
+
+    /**
+     * Tokenizes a message.
+     * @return Fields of the message, null if its command is not described
+     */
+    public Message parse(String text) {
+        int commandEnd = next(text, 0);
+        Command command = lookup(text, commandEnd);
+        if (command == null) {
+            return null;
+        }
+        int[] bounds = new int[2 * (command.arguments.length + 2)];
+        int fields = 0;
+        int start = 0;
+        while (true) {
+            int end = fields == 0 ? commandEnd : next(text, start);
+            if (2 * fields + 1 >= bounds.length) {
+                int[] larger = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, larger, 0, bounds.length);
+                bounds = larger;
+            }
+            bounds[2 * fields] = start;
+            bounds[2 * fields + 1] = end;
+            fields++;
+            if (end == text.length()) {
+                return new Message(text, command, bounds, fields);
+            }
+            start = end + separator.length();
+        }
+    }
+
+    /**
+     * @return Index of the next separator from the index, the length of the text if there is none
+     */
+    private int next(String text, int from) {
+        int index;
+        if (separator.length() == 1) {
+            index = text.indexOf(separator.charAt(0), from);
+        } else {
+            index = text.indexOf(separator, from);
+        }
+        return index == -1 ? text.length() : index;
+    }
+
+    private Command lookup(String text, int end) {
+        int slot = hash(text, 0, end) & mask;
+        Command command;
+        while ((command = table[slot]) != null) {
+            if (command.name.length() == end && equalsIgnoreCase(text, command.name, end)) {
+                return command;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the first length chars of the text are the name, ignoring case char by char
+     */
+    private static boolean equalsIgnoreCase(String text, String name, int length) {
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String lowerCase(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return String.hashCode() of the lower-cased text[from, to), spread over the table
+     */
+    private static int hash(String text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    public String getSeparator() {
+        return separator;
+    }
+}
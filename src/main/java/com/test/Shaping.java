@@ -0,0 +1,85 @@
+package com.test;
+
+/**
+ *  Shaping of a relay direction as specified in JSON config: a link with limited bandwidth, loss and latency.
+ */
+public class Shaping {
+    // Bytes of a TCP segment, the unit that is lost and retransmitted
+    public static final int SEGMENT_SIZE = 1460;
+
+    private long bandwidth;
+    private int burst;
+    private double loss;
+    private int latency;
+    private int jitter;
+    private String distribution;
+
+    /**
+     * @return Bytes per second the link carries (0 for no limit).
+     */
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @return Bytes sent at once after the link has been idle, default the bytes of 100 ms but at least one segment.
+     */
+    public int getBurst() {
+        if (burst > 0) {
+            return burst;
+        }
+        return (int) Math.max(SEGMENT_SIZE, Math.min(Integer.MAX_VALUE, bandwidth / 10));
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * @return Probability that a segment is lost and has to be retransmitted (0 to 1).
+     */
+    public double getLoss() {
+        return loss;
+    }
+
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * @return One-way latency of the link in ms.
+     */
+    public int getLatency() {
+        return latency;
+    }
+
+    public void setLatency(int latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @return Jitter of the latency in ms.
+     */
+    public int getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(int jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return Distribution of the latency, e.g. "uniform", "normal" or "pareto:1.5" (null for none).
+     */
+    public String getDistribution() {
+        return distribution;
+    }
+
+    public void setDistribution(String distribution) {
+        this.distribution = distribution;
+    }
+}
@@ -9,6 +9,18 @@ public class Test {
     private boolean isEnabled;
     private int duration;
     private String value;
+    private String distribution;
+    private int jitter;
+    private boolean allowReorder;
+    private long maxMessages;
+    private int idleTimeout;
+    private int clients;
+    private Long seed;
+    private int loadClients;
+    private double loadRate;
+    private String[] loadMessages;
+    private Shaping shaping;
+    private Shaping shapingToClient;
 
     public String getValue() {
         return value;
@@ -43,4 +55,139 @@ public class Test {
     public void setDuration(int duration) {
         this.duration = duration;
     }
+
+    /**
+     * @return Jitter distribution, e.g. "uniform", "normal" or "pareto:1.5" (null for none).
+     */
+    public String getDistribution() {
+        return distribution;
+    }
+
+    public void setDistribution(String distribution) {
+        this.distribution = distribution;
+    }
+
+    public int getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(int jitter) {
+        this.jitter = jitter;
+    }
+
+    public boolean isAllowReorder() {
+        return allowReorder;
+    }
+
+    public void setAllowReorder(boolean allowReorder) {
+        this.allowReorder = allowReorder;
+    }
+
+    /**
+     * @return Number of relayed messages after which the test ends (0 for no limit).
+     */
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(long maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * @return Seconds without any relayed message after which the test ends (0 to disable).
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return Seed of the random numbers used by the test, overrides the seed of the config (null if not set).
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return Number of game clients launched for the test (at least 1).
+     */
+    public int getClients() {
+        return Math.max(1, clients);
+    }
+
+    public void setClients(int clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * @return Number of synthetic clients replacing the game client JAR (0 to launch the game client).
+     */
+    public int getLoadClients() {
+        return loadClients;
+    }
+
+    public void setLoadClients(int loadClients) {
+        this.loadClients = loadClients;
+    }
+
+    /**
+     * @return Messages per second sent by each synthetic client (default 1).
+     */
+    public double getLoadRate() {
+        return loadRate > 0 ? loadRate : 1;
+    }
+
+    public void setLoadRate(double loadRate) {
+        this.loadRate = loadRate;
+    }
+
+    /**
+     * @return Messages sent by the synthetic clients in turn (null to build them from the commands).
+     */
+    public String[] getLoadMessages() {
+        return loadMessages;
+    }
+
+    public void setLoadMessages(String[] loadMessages) {
+        this.loadMessages = loadMessages;
+    }
+
+    /**
+     * @return Shaping of the messages to the game server, also used for the game client unless shapingToClient is set
+     * (null for none).
+     */
+    public Shaping getShaping() {
+        return shaping;
+    }
+
+    public void setShaping(Shaping shaping) {
+        this.shaping = shaping;
+    }
+
+    /**
+     * @return Shaping of the messages to the game client (null to use shaping).
+     */
+    public Shaping getShapingToClient() {
+        return shapingToClient;
+    }
+
+    public void setShapingToClient(Shaping shapingToClient) {
+        this.shapingToClient = shapingToClient;
+    }
+
+    /**
+     * @param toClient true for the messages to the game client
+     * @return Shaping of the direction, null if the messages are relayed at once
+     */
+    public Shaping getShaping(boolean toClient) {
+        return toClient && shapingToClient != null ? shapingToClient : shaping;
+    }
 }
@@ -0,0 +1,197 @@
+package com.test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *  Tests streamed from a file, either the tests array of the config or a JSON Lines file
+ *  with one test per line. Every iteration reads the file again, one test at a time,
+ *  and the file is closed once the iteration is complete.
+ */
+class TestSource implements Iterable<Test> {
+    private static final TypeAdapter<Test> ADAPTER = new Gson().getAdapter(Test.class);
+
+    private final Path path;
+    private final boolean jsonLines;
+    private final boolean nioRelay;
+
+    /**
+     * @param jsonLines If true, the file has one test per line, otherwise the tests are the tests array of the config
+     * @param nioRelay true if the config uses the nio or raw relay mode, see Config.validate
+     */
+    TestSource(Path path, boolean jsonLines, boolean nioRelay) {
+        this.path = path;
+        this.jsonLines = jsonLines;
+        this.nioRelay = nioRelay;
+    }
+
+    /**
+     * @throws UncheckedIOException if the file cannot be read or contains an invalid test
+     */
+    @Override
+    public Iterator<Test> iterator() {
+        try {
+            return jsonLines ? new JsonLinesIterator() : new ArrayIterator();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads and validates a test.
+     * @param location File and path of the test in the error messages
+     */
+    private Test read(JsonReader reader, String location) throws IOException {
+        Test test;
+        try {
+            test = ADAPTER.read(reader);
+        } catch (MalformedJsonException | JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException(location + ": " + Config.describe(e, reader), e);
+        }
+        Config.validate(test, location, nioRelay);
+        return test;
+    }
+
+    private abstract static class TestIterator implements Iterator<Test> {
+        private Test next;
+        private boolean done;
+
+        /**
+         * @return Next test, null at the end of the file
+         */
+        abstract Test read() throws IOException;
+
+        abstract void close() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = read();
+                    if (next == null) {
+                        done = true;
+                        close();
+                    }
+                } catch (IOException e) {
+                    done = true;
+                    try {
+                        close();
+                    } catch (IOException closeException) {
+                        e.addSuppressed(closeException);
+                    }
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Test next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Test test = next;
+            next = null;
+            return test;
+        }
+    }
+
+    /**
+     * Streams the tests array of the config, the other properties are skipped.
+     */
+    private class ArrayIterator extends TestIterator {
+        private final JsonReader reader;
+        private boolean inArray;
+
+        ArrayIterator() throws IOException {
+            reader = Config.open(path);
+            try {
+                reader.beginObject();
+                while (reader.hasNext() && !inArray) {
+                    if (reader.nextName().equals(Config.TESTS) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        inArray = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+            } catch (MalformedJsonException | IllegalStateException e) {
+                IOException exception = new IOException(path + ": " + Config.describe(e, reader), e);
+                reader.close();
+                throw exception;
+            }
+        }
+
+        @Override
+        Test read() throws IOException {
+            try {
+                if (!inArray || !reader.hasNext()) {
+                    return null;
+                }
+            } catch (MalformedJsonException e) {
+                throw new IOException(path + ": " + e.getMessage(), e);
+            }
+            return TestSource.this.read(reader, path + " " + reader.getPath());
+        }
+
+        @Override
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams a JSON Lines file, blank lines are skipped.
+     */
+    private class JsonLinesIterator extends TestIterator {
+        private final BufferedReader lines;
+        private int lineNumber;
+
+        JsonLinesIterator() throws IOException {
+            lines = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        Test read() throws IOException {
+            String line;
+            do {
+                line = lines.readLine();
+                lineNumber++;
+            } while (line != null && line.isBlank());
+            if (line == null) {
+                return null;
+            }
+            String location = path + ":" + lineNumber + " $";
+            JsonReader reader = new JsonReader(new StringReader(line));
+            reader.setLenient(true);
+            Test test = TestSource.this.read(reader, location);
+            try {
+                if (reader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new IOException(location + ": Only one test per line is allowed.");
+                }
+            } catch (MalformedJsonException e) {
+                throw new IOException(location + ": " + e.getMessage(), e);
+            }
+            return test;
+        }
+
+        @Override
+        void close() throws IOException {
+            lines.close();
+        }
+    }
+}
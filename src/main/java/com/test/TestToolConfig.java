@@ -1,6 +1,10 @@
 package com.test;
 
+import com.Logger;
+
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  *   TestToolConfig object as specified in JSON config.
@@ -15,7 +19,28 @@ public class TestToolConfig {
     private int timeout;
     private boolean printLog;
     private boolean logModeCSV;
+    private String relayMode;
+    private int logQueueSize;
+    private String logBackpressure;
+    private int parallelTests;
+    private int[] portRange;
+    private String threadModel;
+    private boolean capture;
+    private String corpus;
+    private Long seed;
+    private int metricsPort;
+    private Map<String, String[]> responseMapping;
+    private double regressionFactor;
+    private boolean stopOnCrash;
+    private String[] crashPatterns;
+    private int warmServers;
+    private Map<String, ArgumentSpec[]> protocol;
+    // Tokenizer compiled from the protocol on first use
+    private transient Protocol compiledProtocol;
     private List<Test> tests;
+    private String testsFile;
+    // Tests streamed from the config or the testsFile, set by Config
+    private transient Iterable<Test> testSource;
 
     public int getGameServerPort() {
         return gameServerPort;
@@ -33,12 +58,35 @@ public class TestToolConfig {
         this.testToolPort = testToolPort;
     }
 
-    public List<Test> getTests() {
-        return tests;
+    /**
+     * @return Configured tests, read lazily from the config file or the testsFile on every iteration
+     * until they are set as a list (see Config.getTestConfig).
+     */
+    public Iterable<Test> getTests() {
+        if (testSource != null) {
+            return testSource;
+        }
+        return tests != null ? tests : Collections.emptyList();
     }
 
     public void setTests(List<Test> tests) {
         this.tests = tests;
+        this.testSource = null;
+    }
+
+    void setTestSource(Iterable<Test> testSource) {
+        this.testSource = testSource;
+    }
+
+    /**
+     * @return JSON Lines file with one test per line, relative to the config file (null for the tests of the config).
+     */
+    public String getTestsFile() {
+        return testsFile;
+    }
+
+    public void setTestsFile(String testsFile) {
+        this.testsFile = testsFile;
     }
 
     public String getProtocolSeparator() {
@@ -66,4 +114,190 @@ public class TestToolConfig {
     public boolean isLogModeCSV() {
         return logModeCSV;
     }
+
+    /**
+     * @return "polling" (default) for the reader based relay, "nio" for the selector based relay,
+     *         "raw" for the selector based relay that only decodes the messages selected for testing.
+     */
+    public String getRelayMode() {
+        return relayMode == null ? "polling" : relayMode;
+    }
+
+    public boolean isNioRelay() {
+        return "nio".equalsIgnoreCase(getRelayMode()) || isRawRelay();
+    }
+
+    public boolean isRawRelay() {
+        return "raw".equalsIgnoreCase(getRelayMode());
+    }
+
+    public int getLogQueueSize() {
+        return logQueueSize > 0 ? logQueueSize : Logger.DEFAULT_QUEUE_SIZE;
+    }
+
+    /**
+     * @return "block" (default) to wait for space in the log queue, "drop" to drop and count log lines.
+     */
+    public String getLogBackpressure() {
+        return logBackpressure == null ? "block" : logBackpressure;
+    }
+
+    public boolean isLogDropWhenFull() {
+        return "drop".equalsIgnoreCase(getLogBackpressure());
+    }
+
+    /**
+     * @return Number of tests running at the same time: 1 (default) runs the tests sequentially,
+     *         -1 uses the number of available processors.
+     */
+    public int getParallelTests() {
+        if (parallelTests < 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, parallelTests);
+    }
+
+    /**
+     * @return First and last port used by parallel tests. Defaults to the 200 ports starting at testToolPort.
+     */
+    public int[] getPortRange() {
+        if (portRange == null || portRange.length != 2) {
+            return new int[]{testToolPort, testToolPort + 199};
+        }
+        return portRange;
+    }
+
+    /**
+     * @return "platform" (default) or "virtual" for the relay and process output threads.
+     */
+    public String getThreadModel() {
+        return threadModel == null ? "platform" : threadModel;
+    }
+
+    public boolean isVirtualThreads() {
+        return "virtual".equalsIgnoreCase(getThreadModel());
+    }
+
+    /**
+     * @return Seed of the random numbers used by the tests, null for a new random seed per test.
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return Port of the local HTTP endpoint serving the metrics of the running tests (0 to disable).
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * @return Commands of the game server answering each client command, null to pair every client command
+     * with the next server message.
+     */
+    public Map<String, String[]> getResponseMapping() {
+        return responseMapping;
+    }
+
+    public void setResponseMapping(Map<String, String[]> responseMapping) {
+        this.responseMapping = responseMapping;
+    }
+
+    /**
+     * @return Factor by which the reaction time of a command must exceed the Relay test to be reported (default 2).
+     */
+    public double getRegressionFactor() {
+        return regressionFactor > 0 ? regressionFactor : 2;
+    }
+
+    public void setRegressionFactor(double regressionFactor) {
+        this.regressionFactor = regressionFactor;
+    }
+
+    /**
+     * @return true if a test ends at the first crash found in the output of the game JARs.
+     */
+    public boolean isStopOnCrash() {
+        return stopOnCrash;
+    }
+
+    public void setStopOnCrash(boolean stopOnCrash) {
+        this.stopOnCrash = stopOnCrash;
+    }
+
+    /**
+     * @return Regular expressions marking further anomalies in the output of the game JARs, null if none.
+     */
+    public String[] getCrashPatterns() {
+        return crashPatterns;
+    }
+
+    public void setCrashPatterns(String[] crashPatterns) {
+        this.crashPatterns = crashPatterns;
+    }
+
+    /**
+     * @return Number of game servers launched ahead of their tests (0 to launch one per test).
+     */
+    public int getWarmServers() {
+        return warmServers;
+    }
+
+    public void setWarmServers(int warmServers) {
+        this.warmServers = warmServers;
+    }
+
+    /**
+     * @return Description of the protocol: the arguments of every command (null if not described).
+     */
+    public Map<String, ArgumentSpec[]> getProtocolDescription() {
+        return protocol;
+    }
+
+    public void setProtocolDescription(Map<String, ArgumentSpec[]> protocol) {
+        this.protocol = protocol;
+        this.compiledProtocol = null;
+    }
+
+    /**
+     * @return Protocol compiled once from its description, null if the protocol is not described
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    public synchronized Protocol getProtocol() {
+        if (compiledProtocol == null && protocol != null) {
+            compiledProtocol = Protocol.compile(protocol, protocolSeparator);
+        }
+        return compiledProtocol;
+    }
+
+    /**
+     * @return true if the relayed messages of every test are written to a capture file for Replay.
+     */
+    public boolean isCapture() {
+        return capture;
+    }
+
+    public void setCapture(boolean capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @return Corpus file of unique messages and anomaly inputs, kept across runs (null if disabled).
+     */
+    public String getCorpus() {
+        return corpus;
+    }
+
+    public void setCorpus(String corpus) {
+        this.corpus = corpus;
+    }
 }